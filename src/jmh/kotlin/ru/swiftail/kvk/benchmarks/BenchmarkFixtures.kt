@@ -0,0 +1,35 @@
+package ru.swiftail.kvk.benchmarks
+
+import com.google.common.util.concurrent.RateLimiter
+import com.google.gson.Gson
+import com.vk.api.sdk.client.VkApiClient
+import com.vk.api.sdk.client.actors.GroupActor
+import com.vk.api.sdk.httpclient.HttpTransportClient
+import com.vk.api.sdk.objects.messages.Message
+import ru.swiftail.kvk.command.api.command.CommandSource
+import ru.swiftail.kvk.vk.api.VkContext
+import ru.swiftail.kvk.vk.api.bot.BotVk
+import ru.swiftail.kvk.vk.api.media.MediaConfiguration
+import ru.swiftail.kvk.vk.api.media.MediaServices
+import ru.swiftail.kvk.vk.api.message.MessageContext
+
+/**
+ * Objects the command pipeline needs, benchmarks never reach the network
+ */
+object BenchmarkFixtures {
+
+    val botVk: BotVk by lazy {
+        val vkContext = VkContext(
+            GroupActor(1, "benchmark"),
+            VkApiClient(HttpTransportClient()),
+            RateLimiter.create(1000.0)
+        )
+        BotVk(vkContext, MediaServices(MediaConfiguration.defaults()))
+    }
+
+    fun source(text: String = ""): CommandSource {
+        val message = Gson().fromJson("""{"peer_id":2000000001,"from_id":1,"text":"$text"}""", Message::class.java)
+        return CommandSource(MessageContext(botVk, message))
+    }
+
+}
@@ -0,0 +1,85 @@
+package ru.swiftail.kvk.benchmarks
+
+import kotlinx.coroutines.runBlocking
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import ru.swiftail.kvk.command.api.command.CommandSource
+import ru.swiftail.kvk.command.api.command.args.CommandArgs
+import ru.swiftail.kvk.command.api.command.args.CommandContext
+import ru.swiftail.kvk.command.api.command.args.GenericArguments.choices
+import ru.swiftail.kvk.command.api.command.args.GenericArguments.firstParsing
+import ru.swiftail.kvk.command.api.command.args.GenericArguments.flags
+import ru.swiftail.kvk.command.api.command.args.GenericArguments.integer
+import ru.swiftail.kvk.command.api.command.args.GenericArguments.optional
+import ru.swiftail.kvk.command.api.command.args.GenericArguments.remainingJoinedStrings
+import ru.swiftail.kvk.command.api.command.args.GenericArguments.seq
+import ru.swiftail.kvk.command.api.command.args.GenericArguments.string
+import ru.swiftail.kvk.command.api.command.args.parsing.InputTokenizer
+import ru.swiftail.kvk.command.api.command.spec.CommandSpec
+import java.util.concurrent.TimeUnit
+
+/**
+ * Parsing of a command shaped like the ones we have in production
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class CommandSpecBenchmark {
+
+    @Param(
+        "42",
+        "-s --limit 10 42 fast",
+        "--limit 10 someone slow a reason with several words"
+    )
+    lateinit var arguments: String
+
+    private lateinit var spec: CommandSpec
+    private lateinit var source: CommandSource
+
+    private val tokenizer = InputTokenizer.quotedStrings(false)
+
+    @Setup
+    fun setUp() {
+        source = BenchmarkFixtures.source()
+        spec = CommandSpec.builder()
+            .arguments(
+                flags()
+                    .flag("s", "-silent")
+                    .valueFlag(integer("limit"), "-limit")
+                    .buildWith(
+                        seq(
+                            firstParsing(integer("id"), string("name")),
+                            optional(choices("mode", mapOf("fast" to 1, "slow" to 2))),
+                            optional(remainingJoinedStrings("reason"))
+                        )
+                    )
+            )
+            .executor { _, _ -> }
+            .build()
+    }
+
+    @Benchmark
+    fun parse(): CommandContext {
+        val context = CommandContext()
+        spec.populateContext(source, CommandArgs(arguments, tokenizer.tokenize(arguments, false)), context)
+        return context
+    }
+
+    @Benchmark
+    fun process() = runBlocking {
+        spec.process(source, arguments)
+    }
+
+}
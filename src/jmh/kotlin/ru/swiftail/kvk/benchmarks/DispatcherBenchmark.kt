@@ -0,0 +1,62 @@
+package ru.swiftail.kvk.benchmarks
+
+import kotlinx.coroutines.runBlocking
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import ru.swiftail.kvk.command.api.command.CommandMapping
+import ru.swiftail.kvk.command.api.command.CommandSource
+import ru.swiftail.kvk.command.api.command.args.GenericArguments
+import ru.swiftail.kvk.command.api.command.dispatcher.SimpleDispatcher
+import ru.swiftail.kvk.command.api.command.spec.CommandSpec
+import java.util.Optional
+import java.util.concurrent.TimeUnit
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class DispatcherBenchmark {
+
+    @Param("10", "1000", "10000")
+    var aliases: Int = 0
+
+    private val dispatcher = SimpleDispatcher()
+    private lateinit var source: CommandSource
+
+    private lateinit var alias: String
+    private lateinit var commandLine: String
+
+    @Setup
+    fun setUp() {
+        source = BenchmarkFixtures.source()
+        repeat(aliases) { index ->
+            val spec = CommandSpec.builder()
+                .arguments(GenericArguments.integer("value"))
+                .executor { _, _ -> }
+                .build()
+            dispatcher.register(spec, "command$index", "c$index")
+        }
+        alias = "command${aliases / 2}"
+        commandLine = "$alias 42"
+    }
+
+    @Benchmark
+    fun get(): Optional<CommandMapping> = dispatcher.get(alias, source)
+
+    @Benchmark
+    fun process() = runBlocking {
+        dispatcher.process(source, commandLine)
+    }
+
+}
@@ -0,0 +1,121 @@
+package ru.swiftail.kvk.benchmarks
+
+import org.openjdk.jmh.annotations.AuxCounters
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import ru.swiftail.kvk.vk.api.media.ImageTranscoder
+import java.awt.Color
+import java.awt.GradientPaint
+import java.awt.image.BufferedImage
+import java.io.ByteArrayOutputStream
+import java.util.Random
+import java.util.concurrent.TimeUnit
+import javax.imageio.ImageIO
+
+/**
+ * Time spent transcoding a camera-sized photo and the bytes left to upload.
+ *
+ * Compare `uploadBytes` of [passthrough] and [transcode] for the bandwidth saved,
+ * `uploadMillis` estimates the upload time over a [linkMbps] uplink.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+open class ImageTranscoderBenchmark {
+
+    @Param("4000x3000", "2560x1440")
+    lateinit var size: String
+
+    @Param("png", "jpg")
+    lateinit var format: String
+
+    @Param("20")
+    var linkMbps: Int = 0
+
+    private lateinit var source: ByteArray
+
+    // Cache disabled, every invocation transcodes
+    private val transcoder = ImageTranscoder(ImageTranscoder.VK_MAX_DIMENSION, 0.85f, 1, 0)
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        val (width, height) = size.split("x").map { it.toInt() }
+        source = encode(photoLike(width, height), format)
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    open class Upload {
+        @JvmField
+        var uploadBytes: Long = 0
+
+        @JvmField
+        var uploadMillis: Double = 0.0
+
+        @Setup(Level.Iteration)
+        fun reset() {
+            uploadBytes = 0
+            uploadMillis = 0.0
+        }
+
+        fun record(bytes: Int, linkMbps: Int) {
+            uploadBytes += bytes
+            uploadMillis += bytes * 8.0 / (linkMbps * 1000.0)
+        }
+    }
+
+    @Benchmark
+    fun passthrough(upload: Upload): ByteArray {
+        upload.record(source.size, linkMbps)
+        return source
+    }
+
+    @Benchmark
+    fun transcode(upload: Upload): ByteArray {
+        val output = transcoder.transcode(source)
+        upload.record(output.size, linkMbps)
+        return output
+    }
+
+    private fun photoLike(width: Int, height: Int): BufferedImage {
+        val image = BufferedImage(width, height, BufferedImage.TYPE_INT_RGB)
+        val graphics = image.createGraphics()
+        graphics.paint = GradientPaint(0f, 0f, Color(30, 90, 160), width.toFloat(), height.toFloat(), Color(230, 180, 90))
+        graphics.fillRect(0, 0, width, height)
+        graphics.dispose()
+
+        // Sensor-like noise keeps the source from compressing unrealistically well
+        val random = Random(42)
+        for (y in 0 until height) {
+            for (x in 0 until width) {
+                val rgb = image.getRGB(x, y)
+                val noise = random.nextInt(17) - 8
+                val r = ((rgb shr 16 and 0xff) + noise).coerceIn(0, 255)
+                val g = ((rgb shr 8 and 0xff) + noise).coerceIn(0, 255)
+                val b = ((rgb and 0xff) + noise).coerceIn(0, 255)
+                image.setRGB(x, y, (r shl 16) or (g shl 8) or b)
+            }
+        }
+        return image
+    }
+
+    private fun encode(image: BufferedImage, format: String): ByteArray {
+        val output = ByteArrayOutputStream()
+        ImageIO.write(image, format, output)
+        return output.toByteArray()
+    }
+
+}
@@ -0,0 +1,112 @@
+package ru.swiftail.kvk.benchmarks
+
+import ch.qos.logback.classic.AsyncAppender
+import ch.qos.logback.classic.Level
+import ch.qos.logback.classic.LoggerContext
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder
+import ch.qos.logback.classic.spi.ILoggingEvent
+import ch.qos.logback.core.Appender
+import ch.qos.logback.core.FileAppender
+import mu.KLogger
+import mu.KotlinLogging
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Threads
+import org.openjdk.jmh.annotations.Warmup
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.TimeUnit
+
+/**
+ * Log calls of 8 handler threads, written synchronously or through the async appender of logback.xml.
+ *
+ * Events go to a file rather than the console to keep the terminal out of the numbers.
+ * Once the async queue is saturated its INFO events are discarded, which is the point of it:
+ * handlers stop paying for console I/O.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+open class LoggingBenchmark {
+
+    @Param("sync", "async")
+    lateinit var appender: String
+
+    private lateinit var context: LoggerContext
+    private lateinit var file: Path
+    private lateinit var logger: KLogger
+
+    private val alias = "ping"
+    private val elapsed = 12L
+
+    @Setup
+    fun setUp() {
+        context = LoggerContext()
+        file = Files.createTempFile("kvk-logging", ".log")
+
+        val encoder = PatternLayoutEncoder().apply {
+            context = this@LoggingBenchmark.context
+            pattern = "%d{HH:mm:ss.S} [%thread] %-5level %logger{36} - %msg%n"
+            start()
+        }
+        val fileAppender = FileAppender<ILoggingEvent>().apply {
+            context = this@LoggingBenchmark.context
+            name = "FILE"
+            this.file = this@LoggingBenchmark.file.toString()
+            this.encoder = encoder
+            start()
+        }
+
+        val root = context.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)
+        root.level = Level.INFO
+        root.addAppender(
+            when (appender) {
+                "sync" -> fileAppender
+                "async" -> async(fileAppender)
+                else -> error("Unknown appender $appender")
+            }
+        )
+        logger = KotlinLogging.logger(context.getLogger("ru.swiftail.kvk.lifecycle.CommandListener"))
+    }
+
+    private fun async(delegate: Appender<ILoggingEvent>) = AsyncAppender().apply {
+        context = this@LoggingBenchmark.context
+        name = "ASYNC"
+        // Same as logback.xml
+        queueSize = 8192
+        discardingThreshold = 1024
+        isNeverBlock = true
+        isIncludeCallerData = false
+        addAppender(delegate)
+        start()
+    }
+
+    @TearDown
+    fun tearDown() {
+        context.stop()
+        Files.deleteIfExists(file)
+    }
+
+    @Benchmark
+    fun info() = logger.info("Command {} handled in {} ms", alias, elapsed)
+
+    /**
+     * Disabled level with a lazy message, the lambda is never called
+     */
+    @Benchmark
+    fun debugDisabled() = logger.debug { "Command $alias handled in $elapsed ms" }
+
+}
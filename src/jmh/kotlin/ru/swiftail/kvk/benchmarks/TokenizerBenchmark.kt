@@ -0,0 +1,54 @@
+package ru.swiftail.kvk.benchmarks
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import ru.swiftail.kvk.command.api.command.args.parsing.InputTokenizer
+import ru.swiftail.kvk.command.api.command.args.parsing.SingleArg
+import java.util.concurrent.TimeUnit
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class TokenizerBenchmark {
+
+    @Param("short", "long", "quoted")
+    lateinit var input: String
+
+    private lateinit var arguments: String
+
+    private val spaceSplit = InputTokenizer.spaceSplitString()
+    private val quoted = InputTokenizer.quotedStrings(false)
+    private val raw = InputTokenizer.rawInput()
+
+    @Setup
+    fun setUp() {
+        arguments = when (input) {
+            "short" -> "kick 12345"
+            "long" -> (1..200).joinToString(" ") { "word$it" }
+            "quoted" -> (1..50).joinToString(" ") { "\"quoted \\\"arg\\\" $it\" 'single $it'" }
+            else -> error("Unknown input $input")
+        }
+    }
+
+    @Benchmark
+    fun spaceSplit(): List<SingleArg> = spaceSplit.tokenize(arguments, false)
+
+    @Benchmark
+    fun quotedStrings(): List<SingleArg> = quoted.tokenize(arguments, false)
+
+    @Benchmark
+    fun rawInput(): List<SingleArg> = raw.tokenize(arguments, false)
+
+}
@@ -0,0 +1,54 @@
+package ru.swiftail.kvk.loadtest
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Collects latencies of one load step
+ */
+class LatencyRecorder {
+
+    private var values = LongArray(1024)
+    private var size = 0
+
+    @Synchronized
+    fun record(nanos: Long) {
+        if (size == values.size) values = values.copyOf(size * 2)
+        values[size++] = nanos
+    }
+
+    @Synchronized
+    fun snapshot(): LatencySnapshot {
+        val sorted = values.copyOf(size).also { it.sort() }
+        size = 0
+        return LatencySnapshot(sorted)
+    }
+
+}
+
+class LatencySnapshot(private val sorted: LongArray) {
+
+    val count: Int
+        get() = sorted.size
+
+    fun percentileMillis(percentile: Double): Double {
+        if (sorted.isEmpty()) return 0.0
+        val index = Math.ceil(percentile / 100.0 * sorted.size).toInt().coerceIn(1, sorted.size) - 1
+        return sorted[index] / NANOS_PER_MILLI
+    }
+
+    val maxMillis: Double
+        get() = if (sorted.isEmpty()) 0.0 else sorted.last() / NANOS_PER_MILLI
+
+    override fun toString(): String {
+        return "p50=${format(percentileMillis(50.0))}ms p90=${format(percentileMillis(90.0))}ms " +
+                "p99=${format(percentileMillis(99.0))}ms p99.9=${format(percentileMillis(99.9))}ms " +
+                "max=${format(maxMillis)}ms"
+    }
+
+    private fun format(value: Double) = "%.1f".format(value)
+
+    companion object {
+        private val NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1).toDouble()
+    }
+
+}
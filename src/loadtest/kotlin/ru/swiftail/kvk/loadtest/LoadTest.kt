@@ -0,0 +1,230 @@
+package ru.swiftail.kvk.loadtest
+
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import com.vk.api.sdk.client.VkApiClient
+import com.vk.api.sdk.httpclient.HttpTransportClient
+import mu.KotlinLogging
+import ru.swiftail.kvk.command.api.command.args.GenericArguments
+import ru.swiftail.kvk.command.api.command.dispatcher.SimpleDispatcher
+import ru.swiftail.kvk.command.api.command.spec.CommandSpec
+import ru.swiftail.kvk.lifecycle.CommandListener
+import ru.swiftail.kvk.permission.InMemoryPermissionStorage
+import ru.swiftail.kvk.permission.PermissionService
+import ru.swiftail.kvk.permission.PermissionsConfiguration
+import ru.swiftail.kvk.vk.api.Commands
+import ru.swiftail.kvk.vk.api.CommandsConfiguration
+import ru.swiftail.kvk.vk.api.file.ExtensionResolverStrategy
+import ru.swiftail.kvk.vk.api.media.MediaConfiguration
+import ru.swiftail.kvk.vk.api.media.MediaServices
+import ru.swiftail.kvk.vk.lowlevel.bus.InProcessEventBus
+import ru.swiftail.kvk.vk.lowlevel.leader.TsCheckpoint
+import ru.swiftail.kvk.vk.tenant.GroupCredentials
+import ru.swiftail.kvk.vk.tenant.GroupsConfiguration
+import ru.swiftail.kvk.vk.tenant.TenantRegistry
+import java.net.URI
+import java.nio.file.Files
+import java.nio.file.Paths
+import java.time.Duration
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.LockSupport
+
+private val logger = KotlinLogging.logger {}
+
+private const val GROUP_ID = 1
+
+// Every injected message gets its own peer, replies are matched to messages by peer id
+private const val FIRST_PEER_ID = 2_000_000_000
+
+/**
+ * Replays `message_new` traffic through the long poll listener, event bus, message events
+ * and command listener against [VkStandIn], stepping through the target rates.
+ *
+ * Options, as `--name=value`:
+ * - `rates` comma-separated messages per second, default `50,100,200,400`
+ * - `duration` seconds per rate, default 30
+ * - `replay` file with recorded updates, one JSON object per line, synthetic traffic if missing
+ * - `photo-share` share of synthetic messages that ask for a photo, default 0.05
+ * - `latency`, `jitter`, `upload-latency` stand-in latencies in ms
+ * - `error-rate` share of API calls failed by the stand-in
+ * - `rps` rate limit of the group, default 1000 so the pipeline is measured rather than the limit
+ * - `handlers` concurrent commands of the group, default 16
+ */
+fun main(args: Array<String>) {
+    val options = args
+        .filter { it.startsWith("--") && it.contains("=") }
+        .associate { it.removePrefix("--").substringBefore("=") to it.substringAfter("=") }
+
+    val rates = (options["rates"] ?: "50,100,200,400").split(",").map { it.trim().toInt() }
+    val duration = options["duration"]?.toLong() ?: 30
+
+    val standIn = VkStandIn(
+        StandInConfiguration(
+            latencyMillis = options["latency"]?.toLong() ?: 20,
+            jitterMillis = options["jitter"]?.toLong() ?: 10,
+            errorRate = options["error-rate"]?.toDouble() ?: 0.0,
+            uploadLatencyMillis = options["upload-latency"]?.toLong() ?: 100
+        )
+    ).start()
+
+    startBot(
+        standIn,
+        GroupCredentials(
+            GROUP_ID,
+            "standin",
+            requestsPerSecond = options["rps"]?.toDouble() ?: 1000.0,
+            maxConcurrentHandlers = options["handlers"]?.toInt() ?: 16
+        )
+    )
+
+    val traffic = options["replay"]
+        ?.let { ReplayTraffic(Files.readAllLines(Paths.get(it)).filter { line -> line.isNotBlank() }) }
+        ?: SyntheticTraffic(options["photo-share"]?.toDouble() ?: 0.05)
+
+    val results = rates.map { rate -> runStep(standIn, traffic, rate, duration) }
+
+    println()
+    println("target/s  sent   answered  lost  achieved/s  latency")
+    results.forEach { println(it) }
+
+    standIn.stop()
+    System.exit(0)
+}
+
+private fun startBot(standIn: VkStandIn, credentials: GroupCredentials) {
+    val vk = object : VkApiClient(HttpTransportClient()) {
+        override fun getApiEndpoint(): String = standIn.apiEndpoint
+    }
+
+    val eventBus = InProcessEventBus()
+    val registry = TenantRegistry(
+        GroupsConfiguration(listOf(credentials)),
+        vk,
+        eventBus,
+        TsCheckpoint.NONE,
+        MediaServices(MediaConfiguration.defaults())
+    )
+
+    val dispatcher = SimpleDispatcher()
+    dispatcher.register(
+        CommandSpec.builder()
+            .arguments(GenericArguments.optional(GenericArguments.remainingJoinedStrings("text")))
+            .executor { src, args -> src.reply(args.getOne<String>("text").orElse("pong")) }
+            .build(),
+        "echo"
+    )
+    dispatcher.register(
+        CommandSpec.builder()
+            .executor { src, _ ->
+                src.reply {
+                    setText("photo")
+                    uploadPhoto(URI("${standIn.baseUrl}/image.jpg"), ExtensionResolverStrategy.STATIC("jpg"))
+                }
+            }
+            .build(),
+        "photo"
+    )
+
+    val permissions = PermissionService(
+        InMemoryPermissionStorage(), PermissionsConfiguration(null, 0, 100_000)
+    )
+    CommandListener(registry, Commands(dispatcher, CommandsConfiguration(Duration.ofSeconds(30))), permissions).run()
+
+    eventBus.subscribe(registry::dispatch)
+    eventBus.start()
+
+    registry.tenants.forEach {
+        it.longPollingListener.connect()
+        it.longPollingListener.startListening()
+    }
+}
+
+private class StepResult(
+    val rate: Int,
+    val sent: Int,
+    val answered: Int,
+    val lost: Int,
+    val durationSeconds: Long,
+    val latency: LatencySnapshot
+) {
+    override fun toString(): String {
+        val achieved = answered.toDouble() / durationSeconds
+        return "%-9d %-6d %-9d %-5d %-11.1f %s".format(rate, sent, answered, lost, achieved, latency)
+    }
+}
+
+private var nextPeerId = FIRST_PEER_ID
+
+private fun runStep(standIn: VkStandIn, traffic: Traffic, rate: Int, durationSeconds: Long): StepResult {
+    logger.info { "Sending $rate messages/s for ${durationSeconds}s" }
+
+    val interval = TimeUnit.SECONDS.toNanos(1) / rate
+    val total = (rate * durationSeconds).toInt()
+    val start = System.nanoTime()
+
+    for (i in 0 until total) {
+        val due = start + i * interval
+        val delay = due - System.nanoTime()
+        if (delay > 0) LockSupport.parkNanos(delay)
+        standIn.enqueue(traffic.next(nextPeerId++))
+    }
+
+    // Gives the replies of the last messages time to arrive
+    val drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DRAIN_SECONDS)
+    while (standIn.unanswered > 0 && System.nanoTime() < drainDeadline) {
+        Thread.sleep(100)
+    }
+
+    val lost = standIn.unanswered
+    standIn.clearUnanswered()
+    val latency = standIn.latencies.snapshot()
+
+    return StepResult(rate, total, latency.count, lost, durationSeconds, latency)
+        .also { logger.info { "Step done: $it" } }
+}
+
+private const val DRAIN_SECONDS = 10L
+
+private interface Traffic {
+    fun next(peerId: Int): JsonObject
+}
+
+private class SyntheticTraffic(private val photoShare: Double) : Traffic {
+    override fun next(peerId: Int): JsonObject {
+        val text = if (ThreadLocalRandom.current().nextDouble() < photoShare) "-photo" else "-echo hello $peerId"
+        return messageNew(peerId, text)
+    }
+}
+
+/**
+ * Recorded updates in a loop, with peer ids replaced so replies can be matched
+ */
+private class ReplayTraffic(lines: List<String>) : Traffic {
+
+    private val updates = lines.map { JsonParser().parse(it).asJsonObject }
+    private var position = 0
+
+    init {
+        require(updates.isNotEmpty()) { "Replay file has no updates" }
+    }
+
+    override fun next(peerId: Int): JsonObject {
+        val update = updates[position++ % updates.size].deepCopy()
+        update.addProperty("group_id", GROUP_ID)
+        update.getAsJsonObject("object").addProperty("peer_id", peerId)
+        return update
+    }
+}
+
+private fun messageNew(peerId: Int, text: String) = JsonObject().apply {
+    addProperty("type", "message_new")
+    addProperty("group_id", GROUP_ID)
+    add("object", JsonObject().apply {
+        addProperty("id", peerId - FIRST_PEER_ID + 1)
+        addProperty("date", System.currentTimeMillis() / 1000)
+        addProperty("peer_id", peerId)
+        addProperty("from_id", 1)
+        addProperty("text", text)
+    })
+}
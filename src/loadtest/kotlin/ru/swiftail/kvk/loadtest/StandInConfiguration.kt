@@ -0,0 +1,16 @@
+package ru.swiftail.kvk.loadtest
+
+class StandInConfiguration(
+    val port: Int = 0,
+    /**
+     * Added to every API method and upload
+     */
+    val latencyMillis: Long = 20,
+    val jitterMillis: Long = 10,
+    /**
+     * Share of API method calls answered with [errorCode]
+     */
+    val errorRate: Double = 0.0,
+    val errorCode: Int = 10,
+    val uploadLatencyMillis: Long = 100
+)
@@ -0,0 +1,248 @@
+package ru.swiftail.kvk.loadtest
+
+import com.google.gson.JsonArray
+import com.google.gson.JsonObject
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import mu.KotlinLogging
+import java.awt.Color
+import java.awt.image.BufferedImage
+import java.io.ByteArrayOutputStream
+import java.io.OutputStream
+import java.net.InetSocketAddress
+import java.net.URLDecoder
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import javax.imageio.ImageIO
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Local replacement of the VK API for load tests.
+ *
+ * Implements the long poll server, `messages.send` and the photo upload flow.
+ * Every peer id gets one incoming message, the time from handing it out in a long poll
+ * response to the `messages.send` for that peer is recorded as its latency.
+ */
+class VkStandIn(private val configuration: StandInConfiguration) {
+
+    private val server = HttpServer.create(InetSocketAddress("127.0.0.1", configuration.port), 0)
+
+    private val pending = LinkedBlockingQueue<JsonObject>()
+    private val deliveredAt = ConcurrentHashMap<Int, Long>()
+    private val ts = AtomicInteger(1)
+    private val ids = AtomicInteger(1)
+
+    val latencies = LatencyRecorder()
+
+    val calls = AtomicLong()
+    val injectedErrors = AtomicLong()
+    val uploads = AtomicLong()
+
+    private val image: ByteArray by lazy {
+        val image = BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB)
+        val graphics = image.createGraphics()
+        graphics.color = Color(70, 130, 180)
+        graphics.fillRect(0, 0, 640, 480)
+        graphics.dispose()
+        ByteArrayOutputStream().also { ImageIO.write(image, "jpg", it) }.toByteArray()
+    }
+
+    val baseUrl: String
+        get() = "http://127.0.0.1:${server.address.port}"
+
+    val apiEndpoint: String
+        get() = "$baseUrl/method/"
+
+    fun start(): VkStandIn {
+        server.createContext("/method/") { handle(it) { method(it) } }
+        server.createContext("/lp") { handle(it) { longPoll(it) } }
+        server.createContext("/upload") { handle(it) { upload(it) } }
+        server.createContext("/image.jpg") { handle(it) { respond(it, 200, image, "image/jpeg") } }
+        // Long polls hold a thread each for up to their wait time
+        server.executor = Executors.newFixedThreadPool(32)
+        server.start()
+        logger.info { "VK stand-in is listening on $baseUrl" }
+        return this
+    }
+
+    fun stop() {
+        server.stop(0)
+        (server.executor as? ExecutorService)?.shutdownNow()
+    }
+
+    /**
+     * Queues an update for the next long poll response
+     */
+    fun enqueue(update: JsonObject) {
+        pending += update
+    }
+
+    /**
+     * Messages handed out to the bot that got no reply yet
+     */
+    val unanswered: Int
+        get() = deliveredAt.size
+
+    fun clearUnanswered() = deliveredAt.clear()
+
+    private fun handle(exchange: HttpExchange, block: (HttpExchange) -> Unit) {
+        try {
+            block(exchange)
+        } catch (e: Exception) {
+            logger.error(e) { "Stand-in failed to handle ${exchange.requestURI}" }
+            // Fails in turn if the response has already started
+            runCatching { respond(exchange, 500, ByteArray(0), "text/plain") }
+        } finally {
+            exchange.close()
+        }
+    }
+
+    private fun method(exchange: HttpExchange) {
+        calls.incrementAndGet()
+        val method = exchange.requestURI.path.removePrefix("/method/")
+        val params = params(exchange)
+
+        simulateLatency(configuration.latencyMillis)
+
+        if (configuration.errorRate > 0 && ThreadLocalRandom.current().nextDouble() < configuration.errorRate) {
+            injectedErrors.incrementAndGet()
+            return respondJson(exchange, error(configuration.errorCode, "Injected error"))
+        }
+
+        val response: Any = when (method) {
+            "groups.getLongPollServer" -> JsonObject().apply {
+                addProperty("key", "standin")
+                addProperty("server", "$baseUrl/lp")
+                addProperty("ts", ts.get().toString())
+            }
+            "messages.send" -> send(params)
+            "photos.getMessagesUploadServer" -> JsonObject().apply {
+                addProperty("upload_url", "$baseUrl/upload")
+                addProperty("album_id", 1)
+                addProperty("user_id", 0)
+            }
+            "photos.saveMessagesPhoto" -> JsonArray().apply {
+                add(JsonObject().apply {
+                    addProperty("id", ids.incrementAndGet())
+                    addProperty("owner_id", -(params["group_id"]?.toIntOrNull() ?: 1))
+                    addProperty("album_id", 1)
+                    addProperty("date", System.currentTimeMillis() / 1000)
+                })
+            }
+            else -> return respondJson(exchange, error(3, "Unknown method passed"))
+        }
+
+        respondJson(exchange, JsonObject().apply {
+            when (response) {
+                is JsonObject -> add("response", response)
+                is JsonArray -> add("response", response)
+                else -> addProperty("response", response as Number)
+            }
+        })
+    }
+
+    private fun send(params: Map<String, String>): Any {
+        val now = System.nanoTime()
+        val peerIds = params["peer_ids"]?.split(",")?.map { it.trim().toInt() }
+            ?: listOfNotNull(params["peer_id"]?.toIntOrNull())
+
+        peerIds.forEach { peerId ->
+            deliveredAt.remove(peerId)?.let { latencies.record(now - it) }
+        }
+
+        if (params.containsKey("peer_ids")) {
+            return JsonArray().apply {
+                peerIds.forEach { peerId ->
+                    add(JsonObject().apply {
+                        addProperty("peer_id", peerId)
+                        addProperty("message_id", ids.incrementAndGet())
+                    })
+                }
+            }
+        }
+        return ids.incrementAndGet()
+    }
+
+    private fun longPoll(exchange: HttpExchange) {
+        val params = params(exchange)
+        val wait = params["wait"]?.toLongOrNull() ?: 25
+
+        val updates = mutableListOf<JsonObject>()
+        pending.poll(wait, TimeUnit.SECONDS)?.let { updates += it }
+        pending.drainTo(updates, MAX_UPDATES - updates.size)
+
+        val now = System.nanoTime()
+        updates.forEach { update ->
+            update.getAsJsonObject("object")?.get("peer_id")?.asInt?.let { deliveredAt[it] = now }
+        }
+
+        respondJson(exchange, JsonObject().apply {
+            addProperty("ts", ts.addAndGet(updates.size).toString())
+            add("updates", JsonArray().apply { updates.forEach { add(it) } })
+        })
+    }
+
+    private fun upload(exchange: HttpExchange) {
+        uploads.incrementAndGet()
+        exchange.requestBody.use { it.copyTo(NullOutput) }
+        simulateLatency(configuration.uploadLatencyMillis)
+
+        respondJson(exchange, JsonObject().apply {
+            addProperty("server", 1)
+            addProperty("photo", """[{"photo":"standin","sizes":[]}]""")
+            addProperty("hash", "standin")
+        })
+    }
+
+    private fun simulateLatency(base: Long) {
+        val jitter = if (configuration.jitterMillis > 0) ThreadLocalRandom.current().nextLong(configuration.jitterMillis) else 0
+        if (base + jitter > 0) Thread.sleep(base + jitter)
+    }
+
+    private fun error(code: Int, message: String) = JsonObject().apply {
+        add("error", JsonObject().apply {
+            addProperty("error_code", code)
+            addProperty("error_msg", message)
+            add("request_params", JsonArray())
+        })
+    }
+
+    private fun params(exchange: HttpExchange): Map<String, String> {
+        val body = exchange.requestBody.readBytes().toString(StandardCharsets.UTF_8)
+        val query = exchange.requestURI.rawQuery ?: ""
+        return (query.split("&") + body.split("&"))
+            .filter { it.contains("=") }
+            .associate {
+                val (key, value) = it.split("=", limit = 2)
+                URLDecoder.decode(key, "UTF-8") to URLDecoder.decode(value, "UTF-8")
+            }
+    }
+
+    private fun respondJson(exchange: HttpExchange, json: JsonObject) {
+        respond(exchange, 200, json.toString().toByteArray(StandardCharsets.UTF_8), "application/json")
+    }
+
+    private fun respond(exchange: HttpExchange, status: Int, body: ByteArray, contentType: String) {
+        exchange.responseHeaders.set("Content-Type", contentType)
+        exchange.sendResponseHeaders(status, if (body.isEmpty()) -1 else body.size.toLong())
+        if (body.isNotEmpty()) exchange.responseBody.write(body)
+    }
+
+    private object NullOutput : OutputStream() {
+        override fun write(b: Int) {}
+        override fun write(b: ByteArray, off: Int, len: Int) {}
+    }
+
+    companion object {
+        private const val MAX_UPDATES = 1000
+    }
+
+}
@@ -24,20 +24,53 @@
  */
 package ru.swiftail.kvk.command.api.command
 
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.withContext
+import ru.swiftail.kvk.command.api.command.cache.ReplyRecorder
+import ru.swiftail.kvk.permission.ResolvedPermissions
+import ru.swiftail.kvk.vk.api.bot.BotVk
 import ru.swiftail.kvk.vk.api.message.MessageContext
 import ru.swiftail.kvk.vk.api.message.MessageQueryBuilder
+import kotlin.coroutines.coroutineContext
 
 
 class CommandSource(
-    val message: MessageContext
+    val message: MessageContext,
+    /**
+     * Permissions of the sender in this chat
+     */
+    val permissions: ResolvedPermissions = ResolvedPermissions.ALL
 ) {
 
     fun hasPermission(permission: String?): Boolean {
-        return true // TODO
+        return permission == null || permissions.has(permission)
     }
 
-    suspend fun reply(text: String) = message.reply(text)
+    /**
+     * Sources with the same key have the same permissions, so they see the same usage and help.
+     * Keys are compared by identity and replaced when roles change.
+     */
+    val permissionCacheKey: Any
+        get() = permissions
 
-    suspend fun reply(block: suspend MessageQueryBuilder.() -> Unit) = message.reply(block)
+    /**
+     * Bot of the group this command was received in
+     */
+    val botVk: BotVk
+        get() = message.botVk
+
+    suspend fun reply(text: String): Deferred<Int> = message.reply(text)
+
+    suspend fun reply(block: suspend MessageQueryBuilder.() -> Unit): Deferred<Int> = message.reply(block)
+
+    /**
+     * Runs [block] and returns the text replies it made,
+     * or null if it replied with anything else or didn't reply at all
+     */
+    internal suspend fun recordReplies(block: suspend () -> Unit): List<String>? {
+        val recorder = ReplyRecorder(message.peerId, coroutineContext[ReplyRecorder])
+        withContext(recorder) { block() }
+        return recorder.result()
+    }
 
 }
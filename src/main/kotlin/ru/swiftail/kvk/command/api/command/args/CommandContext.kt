@@ -73,6 +73,25 @@ class CommandContext {
         }
     }
 
+    /**
+     * Parsed arguments in a stable form, equal for equal arguments regardless of their order.
+     * Values are compared by their string form.
+     */
+    fun cacheKey(): String {
+        val builder = StringBuilder()
+        parsedArgs.keySet().sortedBy { it.orEmpty() }.forEach { key ->
+            // Lengths keep values containing separators from colliding
+            val name = key.orEmpty()
+            builder.append(name.length).append(':').append(name)
+            parsedArgs[key].forEach { value ->
+                val text = value.toString()
+                builder.append(';').append(text.length).append(':').append(text)
+            }
+            builder.append('|')
+        }
+        return builder.toString()
+    }
+
     fun hasAny(key: String?): Boolean {
         return parsedArgs.containsKey(key)
     }
@@ -60,13 +60,10 @@ public final class CommandFlags extends CommandElement {
     @Override
     public void parse(CommandSource source, CommandArgs args, CommandContext context) throws ArgumentParseException {
 
-        System.out.println(args.getAll());
-
         CommandArgs.Snapshot state = args.getSnapshot();
         while (args.hasNext()) {
             String arg = args.next()
                     .replaceAll("\u2014", "--");
-            System.out.println(arg);
             if (arg.startsWith("-")) {
                 CommandArgs.Snapshot start = args.getSnapshot();
                 boolean remove;
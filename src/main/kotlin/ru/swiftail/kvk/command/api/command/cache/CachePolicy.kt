@@ -0,0 +1,13 @@
+package ru.swiftail.kvk.command.api.command.cache
+
+import java.time.Duration
+
+/**
+ * How long replies of a cacheable command are reused
+ *
+ * @param perPeer replies are only reused in the chat they were made for
+ */
+data class CachePolicy(
+    val ttl: Duration,
+    val perPeer: Boolean
+)
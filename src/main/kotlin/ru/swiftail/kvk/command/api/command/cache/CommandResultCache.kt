@@ -0,0 +1,138 @@
+package ru.swiftail.kvk.command.api.command.cache
+
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
+import kotlinx.coroutines.CompletableDeferred
+import ru.swiftail.kvk.command.api.command.CommandSource
+import ru.swiftail.kvk.metrics.PipelineMetrics
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Replies of cacheable commands, replayed to later runs with the same arguments.
+ *
+ * Concurrent runs with the same key wait for the first one instead of executing the command again.
+ * Only text replies to the same peer are stored, a run that sends anything else or nothing isn't cached.
+ * Every message sent from the run's coroutines is seen, not only [CommandSource.reply].
+ * Replies are kept per group and per set of permissions, so a reply that depends on who asks
+ * is never replayed to someone allowed to see less.
+ *
+ * @param maxWeight approximate size of the stored replies in bytes
+ */
+class CommandResultCache(maxWeight: Long) {
+
+    /**
+     * Command and permissions are compared by identity, specs are built once and their equality is deep,
+     * permission keys are shared by everyone with the same roles
+     */
+    private class Key(
+        val command: Any,
+        val groupId: Int,
+        val peerId: Int,
+        val permissions: Any,
+        val arguments: String
+    ) {
+
+        override fun equals(other: Any?): Boolean {
+            return other is Key &&
+                    command === other.command &&
+                    groupId == other.groupId &&
+                    peerId == other.peerId &&
+                    permissions === other.permissions &&
+                    arguments == other.arguments
+        }
+
+        override fun hashCode(): Int {
+            var result = System.identityHashCode(command)
+            result = result * 31 + groupId
+            result = result * 31 + peerId
+            result = result * 31 + System.identityHashCode(permissions)
+            return result * 31 + arguments.hashCode()
+        }
+    }
+
+    private class Entry(val replies: List<String>, val expiresAt: Long)
+
+    private val entries: Cache<Key, Entry> = CacheBuilder.newBuilder()
+        .maximumWeight(maxWeight)
+        .weigher<Key, Entry> { key, entry ->
+            ENTRY_OVERHEAD + key.arguments.length * 2 + entry.replies.sumBy { REPLY_OVERHEAD + it.length * 2 }
+        }
+        .build()
+
+    private val inFlight = ConcurrentHashMap<Key, CompletableDeferred<Entry?>>()
+
+    private val hits = PipelineMetrics.commandCache.labels("hit")
+    private val misses = PipelineMetrics.commandCache.labels("miss")
+    private val coalesced = PipelineMetrics.commandCache.labels("coalesced")
+
+    val size: Long
+        get() = entries.size()
+
+    /**
+     * Replays cached replies of [command] or runs it and caches its replies
+     *
+     * @param command the cached command, compared by identity
+     * @param arguments normalized parsed arguments
+     */
+    suspend fun execute(
+        command: Any,
+        policy: CachePolicy,
+        arguments: String,
+        source: CommandSource,
+        run: suspend () -> Unit
+    ) {
+        val key = Key(
+            command,
+            source.botVk.vkContext.actor.groupId,
+            if (policy.perPeer) source.message.peerId else 0,
+            source.permissionCacheKey,
+            arguments
+        )
+
+        entries.getIfPresent(key)?.let { entry ->
+            if (entry.expiresAt - System.nanoTime() > 0) {
+                hits.increment()
+                return replay(entry, source)
+            }
+            entries.invalidate(key)
+        }
+
+        val flight = CompletableDeferred<Entry?>()
+        val leader = inFlight.putIfAbsent(key, flight)
+        if (leader != null) {
+            coalesced.increment()
+            // Runs that couldn't be cached are repeated
+            val entry = leader.await() ?: return run()
+            return replay(entry, source)
+        }
+
+        misses.increment()
+        var entry: Entry? = null
+        try {
+            val replies = source.recordReplies(run)
+            if (replies != null) {
+                entry = Entry(replies, System.nanoTime() + policy.ttl.toNanos())
+                entries.put(key, entry)
+            }
+        } finally {
+            inFlight.remove(key, flight)
+            flight.complete(entry)
+        }
+    }
+
+    private suspend fun replay(entry: Entry, source: CommandSource) {
+        entry.replies.forEach { source.reply(it) }
+    }
+
+    fun invalidateAll() = entries.invalidateAll()
+
+    companion object {
+        private const val ENTRY_OVERHEAD = 96
+        private const val REPLY_OVERHEAD = 40
+
+        private const val DEFAULT_MAX_WEIGHT = 16L * 1024 * 1024
+
+        val DEFAULT = CommandResultCache(DEFAULT_MAX_WEIGHT)
+    }
+
+}
@@ -0,0 +1,47 @@
+package ru.swiftail.kvk.command.api.command.cache
+
+import kotlin.coroutines.AbstractCoroutineContextElement
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * Collects text replies of a command run to [peerId], nested runs also report to the [outer] one.
+ *
+ * Kept in the coroutine context of the run, so every message sent by the command and its child
+ * coroutines is seen, whichever way it is sent. Child coroutines may report concurrently.
+ */
+internal class ReplyRecorder(
+    private val peerId: Int,
+    private val outer: ReplyRecorder?
+) : AbstractCoroutineContextElement(Key) {
+
+    companion object Key : CoroutineContext.Key<ReplyRecorder>
+
+    private val replies = ArrayList<String>(2)
+
+    /**
+     * False once the command sent something but text to its peer, e.g. a photo
+     */
+    private var replayable = true
+
+    fun text(peerId: Int, text: String) {
+        synchronized(this) {
+            // Replies are replayed to the peer of the later run only
+            if (peerId == this.peerId) replies += text else replayable = false
+        }
+        outer?.text(peerId, text)
+    }
+
+    fun other() {
+        synchronized(this) { replayable = false }
+        outer?.other()
+    }
+
+    /**
+     * @return the replies to replay, or null if the run can't be replayed or sent nothing
+     */
+    @Synchronized
+    fun result(): List<String>? {
+        return if (replayable && replies.isNotEmpty()) replies.toList() else null
+    }
+
+}
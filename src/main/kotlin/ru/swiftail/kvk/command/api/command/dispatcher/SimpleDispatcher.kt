@@ -1,6 +1,7 @@
 package ru.swiftail.kvk.command.api.command.dispatcher
 
 import com.google.common.base.Preconditions
+import com.google.common.cache.CacheBuilder
 import com.google.common.collect.*
 import ru.swiftail.kvk.command.api.command.*
 import java.util.*
@@ -18,6 +19,18 @@ class SimpleDispatcher
     private val commands: ListMultimap<String, CommandMapping> =
         ArrayListMultimap.create()
 
+    /**
+     * Rendered usage and help by [CommandSource.permissionCacheKey].
+     * Replaced whenever the commands change, renders started before that land in the old memo.
+     */
+    private class Memo {
+        val usage = CacheBuilder.newBuilder().weakKeys().build<Any, String>().asMap()
+        val help = CacheBuilder.newBuilder().weakKeys().build<Any, Optional<String>>().asMap()
+    }
+
+    @Volatile
+    private var memo = Memo()
+
     fun register(callable: CommandCallable, vararg alias: String): Optional<CommandMapping> {
         return register(callable, alias.toList())
     }
@@ -75,6 +88,7 @@ class SimpleDispatcher
         for (alias in aliases) {
             commands.put(alias.toLowerCase(), mapping)
         }
+        memo = Memo()
         return Optional.of(mapping)
     }
 
@@ -86,7 +100,9 @@ class SimpleDispatcher
      */
     @Synchronized
     fun remove(alias: String): Collection<CommandMapping> {
-        return commands.removeAll(alias.toLowerCase())
+        val removed = commands.removeAll(alias.toLowerCase())
+        memo = Memo()
+        return removed
     }
 
     /**
@@ -104,6 +120,7 @@ class SimpleDispatcher
                 found = true
             }
         }
+        memo = Memo()
         return found
     }
 
@@ -125,6 +142,7 @@ class SimpleDispatcher
                 found = current
             }
         }
+        memo = Memo()
         return Optional.ofNullable(found)
     }
 
@@ -145,6 +163,7 @@ class SimpleDispatcher
                 found = true
             }
         }
+        memo = Memo()
         return found
     }
 
@@ -243,6 +262,10 @@ class SimpleDispatcher
     }
 
     override fun getHelp(source: CommandSource): Optional<String> {
+        return memo.help.computeIfAbsent(source.permissionCacheKey) { renderHelp(source) }
+    }
+
+    private fun renderHelp(source: CommandSource): Optional<String> {
         if (commands.isEmpty) {
             return Optional.empty()
         }
@@ -297,6 +320,10 @@ class SimpleDispatcher
     }
 
     override fun getUsage(source: CommandSource): String {
+        return memo.usage.computeIfAbsent(source.permissionCacheKey) { renderUsage(source) }
+    }
+
+    private fun renderUsage(source: CommandSource): String {
         val build = StringBuilder()
         val filteredCommands: Iterable<String> = filterCommands(source).stream()
             .filter { input: String? ->
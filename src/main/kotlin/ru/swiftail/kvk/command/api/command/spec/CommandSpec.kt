@@ -27,6 +27,7 @@ package ru.swiftail.kvk.command.api.command.spec
 import com.google.common.base.MoreObjects
 import com.google.common.base.Objects
 import com.google.common.base.Preconditions
+import com.google.common.cache.CacheBuilder
 import com.google.common.collect.ImmutableList
 import ru.swiftail.kvk.command.api.command.CommandCallable
 import ru.swiftail.kvk.command.api.command.CommandException
@@ -34,6 +35,13 @@ import ru.swiftail.kvk.command.api.command.CommandPermissionException
 import ru.swiftail.kvk.command.api.command.CommandSource
 import ru.swiftail.kvk.command.api.command.args.*
 import ru.swiftail.kvk.command.api.command.args.parsing.InputTokenizer
+import ru.swiftail.kvk.command.api.command.cache.CachePolicy
+import ru.swiftail.kvk.command.api.command.cache.CommandResultCache
+import ru.swiftail.kvk.metrics.Metrics
+import ru.swiftail.kvk.metrics.PipelineMetrics
+import ru.swiftail.kvk.tracing.startSpan
+import ru.swiftail.kvk.tracing.traced
+import java.time.Duration
 import java.util.*
 
 /**
@@ -45,7 +53,15 @@ class CommandSpec internal constructor(
     description: String?,
     extendedDescription: String?,
     private val permission: String?,
-    parser: InputTokenizer
+    parser: InputTokenizer,
+    /**
+     * How long the command may run, null for the global default
+     */
+    val timeout: Duration?,
+    /**
+     * Reuse of the command's replies, null if it isn't cacheable
+     */
+    val cachePolicy: CachePolicy?
 ) : CommandCallable {
 
     private val description: Optional<String>
@@ -53,6 +69,11 @@ class CommandSpec internal constructor(
 
     private val inputTokenizer: InputTokenizer
 
+    // The spec doesn't change, its usage and help only depend on the source's permissions.
+    // Keys are weak, permissions of replaced roles are dropped with them
+    private val usageMemo = CacheBuilder.newBuilder().weakKeys().build<Any, String>().asMap()
+    private val helpMemo = CacheBuilder.newBuilder().weakKeys().build<Any, Optional<String>>().asMap()
+
     @Throws(CommandException::class)
     fun checkPermission(source: CommandSource) {
         if (!testPermission(source)) {
@@ -72,10 +93,27 @@ class CommandSpec internal constructor(
     @Throws(CommandException::class)
     override suspend fun process(source: CommandSource, arguments: String) {
         checkPermission(source)
+        val parseStart = Metrics.now()
+        val parseSpan = startSpan("parse")
         val args = CommandArgs(arguments, inputTokenizer.tokenize(arguments, false))
         val context = CommandContext()
-        populateContext(source, args, context)
-        executor(ExecutorContext.INSTANCE, source, context)
+        try {
+            populateContext(source, args, context)
+        } finally {
+            parseSpan?.end()
+        }
+        PipelineMetrics.parseTime.recordSince(parseStart)
+        traced("execute") {
+            val policy = cachePolicy
+            val executorContext = ExecutorContext.of(source)
+            if (policy == null) {
+                executor(executorContext, source, context)
+            } else {
+                CommandResultCache.DEFAULT.execute(this, policy, context.cacheKey(), source) {
+                    executor(executorContext, source, context)
+                }
+            }
+        }
     }
 
     override fun testPermission(source: CommandSource): Boolean {
@@ -91,10 +129,14 @@ class CommandSpec internal constructor(
     }
 
     override fun getUsage(source: CommandSource): String {
-        return args.getUsage(source)
+        return usageMemo.computeIfAbsent(source.permissionCacheKey) { args.getUsage(source) }
     }
 
     override fun getHelp(source: CommandSource): Optional<String> {
+        return helpMemo.computeIfAbsent(source.permissionCacheKey) { renderHelp(source) }
+    }
+
+    private fun renderHelp(source: CommandSource): Optional<String> {
         val builder = StringBuilder()
         getShortDescription(source).ifPresent { a: String? ->
             builder.append(a).append("\n")
@@ -120,7 +162,9 @@ class CommandSpec internal constructor(
                 && Objects.equal(description, that.description)
                 && Objects.equal(extendedDescription, that.extendedDescription)
                 && Objects.equal(permission, that.permission)
-                && Objects.equal(inputTokenizer, that.inputTokenizer))
+                && Objects.equal(inputTokenizer, that.inputTokenizer)
+                && Objects.equal(timeout, that.timeout)
+                && Objects.equal(cachePolicy, that.cachePolicy))
     }
 
     override fun hashCode(): Int {
@@ -130,7 +174,9 @@ class CommandSpec internal constructor(
             description,
             extendedDescription,
             permission,
-            inputTokenizer
+            inputTokenizer,
+            timeout,
+            cachePolicy
         )
     }
 
@@ -142,6 +188,8 @@ class CommandSpec internal constructor(
             .add("extendedDescription", extendedDescription)
             .add("permission", permission)
             .add("argumentParser", inputTokenizer)
+            .add("timeout", timeout)
+            .add("cachePolicy", cachePolicy)
             .toString()
     }
 
@@ -159,6 +207,8 @@ class CommandSpec internal constructor(
             null
         private var childCommandFallback = true
         private var argumentParser = InputTokenizer.quotedStrings(false)
+        private var timeout: Duration? = null
+        private var cachePolicy: CachePolicy? = null
 
         /**
          * Sets the permission that will be checked before using this command.
@@ -336,6 +386,35 @@ class CommandSpec internal constructor(
             return this
         }
 
+        /**
+         * Sets how long the command may run before it is cancelled and the
+         * user is told it took too long. Commands without a timeout use the
+         * global default.
+         *
+         * @param timeout The time limit, or null for the default
+         * @return this
+         */
+        fun timeout(timeout: Duration?): Builder {
+            Preconditions.checkArgument(timeout == null || !timeout.isNegative && !timeout.isZero, "timeout must be positive")
+            this.timeout = timeout
+            return this
+        }
+
+        /**
+         * Marks the command as a read-only lookup whose text replies can be
+         * reused for the same parsed arguments within [ttl]. Concurrent runs
+         * with the same arguments wait for the first one.
+         *
+         * @param ttl How long replies are reused
+         * @param perPeer Whether replies are only reused in the same chat
+         * @return this
+         */
+        fun cacheable(ttl: Duration, perPeer: Boolean = false): Builder {
+            Preconditions.checkArgument(!ttl.isNegative && !ttl.isZero, "ttl must be positive")
+            this.cachePolicy = CachePolicy(ttl, perPeer)
+            return this
+        }
+
         /**
          * Create a new [CommandSpec] based on the data provided in this
          * builder.
@@ -370,7 +449,9 @@ class CommandSpec internal constructor(
                 description,
                 extendedDescription,
                 permission,
-                argumentParser
+                argumentParser,
+                timeout,
+                cachePolicy
             )
         }
 
@@ -2,12 +2,21 @@ package ru.swiftail.kvk.command.api.command.spec
 
 import io.micronaut.inject.qualifiers.Qualifiers
 import ru.swiftail.kvk.bootstrap.getApplicationContext
+import ru.swiftail.kvk.command.api.command.CommandSource
 import ru.swiftail.kvk.vk.api.bot.BotVk
 
-class ExecutorContext private constructor() {
+/**
+ * Receiver of command executors, created for every invocation
+ */
+class ExecutorContext private constructor(
+    /**
+     * Bot of the group the command was received in
+     */
+    val botVk: BotVk
+) {
 
     companion object {
-        val INSTANCE = ExecutorContext()
+        fun of(source: CommandSource) = ExecutorContext(source.botVk)
     }
 
     inline fun <reified T> wire(): T {
@@ -17,7 +26,4 @@ class ExecutorContext private constructor() {
     inline fun <reified T> wire(name: String): T {
         return getApplicationContext().getBean(T::class.java, Qualifiers.byName(name))
     }
-
-    val botVk: BotVk = wire()
-
 }
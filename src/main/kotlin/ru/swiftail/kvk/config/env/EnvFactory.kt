@@ -4,6 +4,23 @@ package ru.swiftail.kvk.config.env
 
 import io.github.cdimascio.dotenv.dotenv
 import io.micronaut.context.annotation.Factory
+import ru.swiftail.kvk.metrics.MetricsConfiguration
+import ru.swiftail.kvk.permission.PermissionsConfiguration
+import ru.swiftail.kvk.tracing.TracingConfiguration
+import ru.swiftail.kvk.vk.VkApiConfiguration
+import ru.swiftail.kvk.vk.api.CommandsConfiguration
+import ru.swiftail.kvk.vk.api.media.ImageTranscoder
+import ru.swiftail.kvk.vk.api.media.MediaConfiguration
+import ru.swiftail.kvk.vk.lowlevel.EventSourceConfiguration
+import ru.swiftail.kvk.vk.lowlevel.EventSourceType
+import ru.swiftail.kvk.vk.lowlevel.bus.EventBusConfiguration
+import ru.swiftail.kvk.vk.lowlevel.bus.NodeRole
+import ru.swiftail.kvk.vk.lowlevel.leader.LeaderElectionConfiguration
+import ru.swiftail.kvk.vk.lowlevel.leader.LeaderElectionMode
+import ru.swiftail.kvk.vk.tenant.GroupCredentials
+import ru.swiftail.kvk.vk.tenant.GroupsConfiguration
+import java.nio.file.Paths
+import java.time.Duration
 import javax.inject.Named
 import javax.inject.Singleton
 
@@ -24,4 +41,157 @@ class EnvFactory {
         return env["VK_GROUP_ID"]?.toIntOrNull() as Integer? ?: error("Failed to load group id")
     }
 
+    /**
+     * Groups are read from VK_GROUPS as comma-separated `groupId:token[:confirmation[:secret]]` entries.
+     * Falls back to the single VK_GROUP_ID / VK_TOKEN group.
+     */
+    @Singleton
+    fun getGroupsConfiguration(): GroupsConfiguration {
+
+        val requestsPerSecond = env["VK_RATE_LIMIT"]?.toDoubleOrNull()
+            ?: GroupCredentials.DEFAULT_REQUESTS_PER_SECOND
+        val maxConcurrentHandlers = env["VK_GROUP_CONCURRENCY"]?.toIntOrNull()
+            ?: GroupCredentials.DEFAULT_MAX_CONCURRENT_HANDLERS
+
+        val groups = env["VK_GROUPS"]
+            ?.split(",")
+            ?.filter { it.isNotBlank() }
+            ?.map { entry ->
+                val groupId = entry.substringBefore(":").trim().toIntOrNull()
+                    ?: error("Invalid group id in VK_GROUPS: $entry")
+                val parts = entry.split(":").map { it.trim() }
+                val token = parts.getOrNull(1)
+                if (token.isNullOrEmpty()) error("Missing token for group $groupId in VK_GROUPS")
+                GroupCredentials(
+                    groupId, token, requestsPerSecond, maxConcurrentHandlers,
+                    callbackConfirmation = parts.getOrNull(2),
+                    callbackSecret = parts.getOrNull(3)
+                )
+            }
+            ?: listOf(
+                GroupCredentials(
+                    getGroupId() as Int, getToken(), requestsPerSecond, maxConcurrentHandlers,
+                    callbackConfirmation = env["VK_CALLBACK_CONFIRMATION"],
+                    callbackSecret = env["VK_CALLBACK_SECRET"]
+                )
+            )
+
+        return GroupsConfiguration(groups)
+    }
+
+    @Singleton
+    fun getEventSourceConfiguration(): EventSourceConfiguration {
+        val type = when (val source = env["VK_EVENT_SOURCE"]?.toLowerCase() ?: "longpoll") {
+            "longpoll" -> EventSourceType.LONG_POLL
+            "callback" -> EventSourceType.CALLBACK
+            else -> error("Unknown VK_EVENT_SOURCE: $source")
+        }
+        return EventSourceConfiguration(
+            type,
+            callbackPort = env["VK_CALLBACK_PORT"]?.toIntOrNull() ?: 8080,
+            callbackPath = env["VK_CALLBACK_PATH"] ?: "/callback"
+        )
+    }
+
+    @Singleton
+    fun getEventBusConfiguration(): EventBusConfiguration {
+        val role = when (val role = env["KVK_ROLE"]?.toLowerCase() ?: "standalone") {
+            "standalone" -> NodeRole.STANDALONE
+            "poller" -> NodeRole.POLLER
+            "worker" -> NodeRole.WORKER
+            else -> error("Unknown KVK_ROLE: $role")
+        }
+        return EventBusConfiguration(
+            role,
+            host = env["KVK_BUS_HOST"] ?: "127.0.0.1",
+            bindHost = env["KVK_BUS_BIND"] ?: "127.0.0.1",
+            port = env["KVK_BUS_PORT"]?.toIntOrNull() ?: 7373,
+            secret = env["KVK_BUS_SECRET"],
+            workers = env["KVK_WORKERS"]?.toIntOrNull() ?: 1,
+            workerIndex = env["KVK_WORKER_INDEX"]?.toIntOrNull() ?: 0
+        )
+    }
+
+    @Singleton
+    fun getLeaderElectionConfiguration(): LeaderElectionConfiguration {
+        val mode = when (val mode = env["KVK_LEADER"]?.toLowerCase() ?: "none") {
+            "none" -> LeaderElectionMode.NONE
+            "file" -> LeaderElectionMode.FILE
+            "store" -> LeaderElectionMode.STORE
+            else -> error("Unknown KVK_LEADER: $mode")
+        }
+        return LeaderElectionConfiguration(
+            mode,
+            directory = Paths.get(env["KVK_LEADER_DIR"] ?: System.getProperty("java.io.tmpdir") + "/kvk"),
+            leaseTtlMillis = env["KVK_LEADER_TTL_MS"]?.toLongOrNull() ?: 10_000,
+            renewIntervalMillis = env["KVK_LEADER_RENEW_MS"]?.toLongOrNull() ?: 2_000
+        )
+    }
+
+    @Singleton
+    fun getMediaConfiguration(): MediaConfiguration {
+        return MediaConfiguration(
+            photoCacheSize = env["KVK_PHOTO_CACHE_SIZE"]?.toLongOrNull() ?: 10_000,
+            photoCacheTtl = Duration.ofMinutes(env["KVK_PHOTO_CACHE_TTL_MINUTES"]?.toLongOrNull() ?: 24 * 60),
+            photoUriCacheTtl = Duration.ofMinutes(env["KVK_PHOTO_URI_CACHE_TTL_MINUTES"]?.toLongOrNull() ?: 5),
+            photoCacheDirectory = env["KVK_PHOTO_CACHE_DIR"]?.let { Paths.get(it) },
+            uploadServerTtl = Duration.ofMinutes(env["KVK_UPLOAD_SERVER_TTL_MINUTES"]?.toLongOrNull() ?: 15),
+            // VK doesn't accept photos larger than 50 MB
+            maxMediaSize = env["KVK_MAX_MEDIA_SIZE"]?.toLongOrNull() ?: 50L * 1024 * 1024,
+            bufferSize = env["KVK_MEDIA_BUFFER_SIZE"]?.toIntOrNull() ?: 64 * 1024,
+            maxBuffers = env["KVK_MEDIA_BUFFERS"]?.toIntOrNull() ?: 32,
+            connectTimeout = Duration.ofMillis(env["KVK_DOWNLOAD_CONNECT_TIMEOUT_MS"]?.toLongOrNull() ?: 10_000),
+            readTimeout = Duration.ofMillis(env["KVK_DOWNLOAD_READ_TIMEOUT_MS"]?.toLongOrNull() ?: 30_000),
+            maxRedirects = env["KVK_DOWNLOAD_MAX_REDIRECTS"]?.toIntOrNull() ?: 5,
+            downloadCacheSize = env["KVK_DOWNLOAD_CACHE_SIZE"]?.toLongOrNull() ?: 32L * 1024 * 1024,
+            transcodeEnabled = env["KVK_TRANSCODE"]?.toBoolean() ?: false,
+            transcodeMaxDimension = env["KVK_TRANSCODE_MAX_DIMENSION"]?.toIntOrNull() ?: ImageTranscoder.VK_MAX_DIMENSION,
+            transcodeQuality = env["KVK_TRANSCODE_QUALITY"]?.toFloatOrNull() ?: 0.85f,
+            transcodeThreads = env["KVK_TRANSCODE_THREADS"]?.toIntOrNull() ?: 2,
+            transcodeCacheSize = env["KVK_TRANSCODE_CACHE_SIZE"]?.toLongOrNull() ?: 64L * 1024 * 1024
+        )
+    }
+
+    @Singleton
+    fun getCommandsConfiguration(): CommandsConfiguration {
+        return CommandsConfiguration(
+            defaultTimeout = Duration.ofMillis(env["KVK_COMMAND_TIMEOUT_MS"]?.toLongOrNull() ?: 30_000)
+        )
+    }
+
+    @Singleton
+    fun getVkApiConfiguration(): VkApiConfiguration {
+        return VkApiConfiguration(
+            endpoint = env["VK_API_ENDPOINT"]?.let { if (it.endsWith("/")) it else "$it/" }
+        )
+    }
+
+    @Singleton
+    fun getMetricsConfiguration(): MetricsConfiguration {
+        return MetricsConfiguration(
+            enabled = env["KVK_METRICS"]?.toBoolean() ?: false,
+            prometheusPort = env["KVK_METRICS_PORT"]?.toIntOrNull(),
+            jmx = env["KVK_METRICS_JMX"]?.toBoolean() ?: false
+        )
+    }
+
+    @Singleton
+    fun getTracingConfiguration(): TracingConfiguration {
+        return TracingConfiguration(
+            enabled = env["KVK_TRACING"]?.toBoolean() ?: false,
+            slowThresholdMillis = env["KVK_TRACE_SLOW_MS"]?.toLongOrNull() ?: 1000,
+            bufferSize = env["KVK_TRACE_BUFFER_SIZE"]?.toIntOrNull() ?: 256,
+            exportFile = env["KVK_TRACE_FILE"]?.let { Paths.get(it) }
+        )
+    }
+
+    @Singleton
+    fun getPermissionsConfiguration(): PermissionsConfiguration {
+        return PermissionsConfiguration(
+            file = env["KVK_PERMISSIONS_FILE"]?.let { Paths.get(it) },
+            reloadIntervalMillis = env["KVK_PERMISSIONS_RELOAD_MS"]?.toLongOrNull() ?: 5000,
+            cacheSize = env["KVK_PERMISSIONS_CACHE_SIZE"]?.toLongOrNull() ?: 100_000
+        )
+    }
+
 }
@@ -4,19 +4,27 @@ import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.newFixedThreadPoolContext
+import kotlinx.coroutines.sync.withPermit
 import mu.KotlinLogging
 import ru.swiftail.kvk.command.api.command.CommandSource
+import ru.swiftail.kvk.metrics.Metrics
+import ru.swiftail.kvk.metrics.PipelineMetrics
+import ru.swiftail.kvk.permission.PermissionService
+import ru.swiftail.kvk.tracing.Tracing
 import ru.swiftail.kvk.vk.api.Commands
 import ru.swiftail.kvk.vk.api.message.MessageContext
-import ru.swiftail.kvk.vk.api.message.MessageEvents
+import ru.swiftail.kvk.vk.tenant.Tenant
+import ru.swiftail.kvk.vk.tenant.TenantRegistry
 import javax.inject.Singleton
+import kotlin.coroutines.EmptyCoroutineContext
 
 private val logger = KotlinLogging.logger {}
 
 @Singleton
 class CommandListener(
-    private val messageEvents: MessageEvents,
-    private val commands: Commands
+    private val tenantRegistry: TenantRegistry,
+    private val commands: Commands,
+    private val permissionService: PermissionService
 ) {
 
     private val commandCoroutineScope =
@@ -29,19 +37,41 @@ class CommandListener(
         val alias = txt.substringBefore(" ").trim()
         val args = txt.removePrefix(alias).trim()
 
-        commands.execute(alias, args, CommandSource(ctx))
+        try {
+            val permissions = permissionService.resolve(ctx.fromId, ctx.peerId)
+            commands.execute(alias, args, CommandSource(ctx, permissions))
+        } finally {
+            // Replies of one command leave together, without waiting for the window
+            ctx.flushReplies()
+        }
     }
 
-    private fun handleMessage(ctx: MessageContext) {
-        commandCoroutineScope.launch {
-            if (ctx.text.startsWith("-")) {
-                handleCommand(ctx)
+    private fun handleMessage(tenant: Tenant, ctx: MessageContext) {
+        val received = Metrics.now()
+        val trace = ctx.trace
+        if (!ctx.text.startsWith("-")) {
+            trace?.let { Tracing.finish(it.trace) }
+            return
+        }
+
+        val dispatch = trace?.startChild("dispatch_wait")
+        commandCoroutineScope.launch(trace ?: EmptyCoroutineContext) {
+            try {
+                tenant.handlerPermits.withPermit {
+                    PipelineMetrics.dispatchWait.recordSince(received)
+                    dispatch?.end()
+                    handleCommand(ctx)
+                }
+            } finally {
+                trace?.let { Tracing.finish(it.trace) }
             }
         }
     }
 
     fun run() {
-        messageEvents.addEventListener(this::handleMessage)
+        tenantRegistry.tenants.forEach { tenant ->
+            tenant.messageEvents.addEventListener { ctx -> handleMessage(tenant, ctx) }
+        }
         logger.debug { "CommandListener is launched" }
     }
 
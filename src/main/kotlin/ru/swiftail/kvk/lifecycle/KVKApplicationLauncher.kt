@@ -1,8 +1,20 @@
 package ru.swiftail.kvk.lifecycle
 
 import mu.KotlinLogging
+import ru.swiftail.kvk.metrics.MetricsBootstrap
 import ru.swiftail.kvk.reflection.ReflectionScanners
-import ru.swiftail.kvk.vk.lowlevel.LongPollingListener
+import ru.swiftail.kvk.tracing.TracingBootstrap
+import ru.swiftail.kvk.vk.lowlevel.EventSourceConfiguration
+import ru.swiftail.kvk.vk.lowlevel.EventSourceType
+import ru.swiftail.kvk.vk.lowlevel.bus.EventBus
+import ru.swiftail.kvk.vk.lowlevel.bus.EventBusConfiguration
+import ru.swiftail.kvk.vk.lowlevel.callback.CallbackApiServer
+import ru.swiftail.kvk.vk.lowlevel.leader.LeaderElectionConfiguration
+import ru.swiftail.kvk.vk.lowlevel.leader.LeaderElectionMode
+import ru.swiftail.kvk.vk.lowlevel.leader.PollerLeadership
+import ru.swiftail.kvk.vk.lowlevel.leader.PollerLeases
+import ru.swiftail.kvk.vk.tenant.TenantRegistry
+import java.net.InetSocketAddress
 import javax.inject.Singleton
 
 ;
@@ -13,7 +25,14 @@ private val logger = KotlinLogging.logger {}
 class KVKApplicationLauncher(
     private val reflectionScanners: ReflectionScanners,
     private val commandListener: CommandListener,
-    private val longPollingListener: LongPollingListener
+    private val tenantRegistry: TenantRegistry,
+    private val eventSourceConfiguration: EventSourceConfiguration,
+    private val eventBus: EventBus,
+    private val eventBusConfiguration: EventBusConfiguration,
+    private val leaderElectionConfiguration: LeaderElectionConfiguration,
+    private val pollerLeases: PollerLeases,
+    private val metricsBootstrap: MetricsBootstrap,
+    private val tracingBootstrap: TracingBootstrap
 ) {
 
     private fun launchCommandListener() {
@@ -21,8 +40,48 @@ class KVKApplicationLauncher(
     }
 
     private fun startLongPoll() {
-        longPollingListener.connect()
-        longPollingListener.startListening()
+        if (leaderElectionConfiguration.mode != LeaderElectionMode.NONE) {
+            PollerLeadership(
+                tenantRegistry.tenants.associate { it.groupId to it.longPollingListener },
+                pollerLeases,
+                leaderElectionConfiguration.renewIntervalMillis
+            ).start()
+            return
+        }
+
+        tenantRegistry.tenants.forEach { tenant ->
+            tenant.longPollingListener.connect()
+            tenant.longPollingListener.startListening()
+        }
+    }
+
+    private fun startCallbackServer() {
+        tenantRegistry.tenants
+            .filter { it.callbackGroup == null }
+            .forEach { logger.warn { "No callback confirmation code for group ${it.groupId}, its events will be rejected" } }
+
+        CallbackApiServer(
+            InetSocketAddress(eventSourceConfiguration.callbackPort),
+            eventSourceConfiguration.callbackPath,
+            eventBus
+        ) { groupId ->
+            tenantRegistry.get(groupId)?.callbackGroup
+        }.start()
+    }
+
+    private fun startEventSource() {
+        when (eventSourceConfiguration.type) {
+            EventSourceType.LONG_POLL -> startLongPoll()
+            EventSourceType.CALLBACK -> startCallbackServer()
+        }
+    }
+
+    private fun startEventBus() {
+        if (eventBusConfiguration.role.processesEvents) {
+            eventBus.subscribe(tenantRegistry::dispatch)
+        }
+        eventBus.start()
+        logger.info { "Running as ${eventBusConfiguration.role.name.toLowerCase()}" }
     }
 
     private fun runReflectionScanners() {
@@ -30,9 +89,18 @@ class KVKApplicationLauncher(
     }
 
     fun runApp() {
+        metricsBootstrap.start()
+        tracingBootstrap.start()
         runReflectionScanners()
-        startLongPoll()
         launchCommandListener()
+        startEventBus()
+
+        if (eventBusConfiguration.role.receivesEvents) {
+            startEventSource()
+        }
+
+        // The application context is closed right after startup, tenants are stopped with the JVM
+        Runtime.getRuntime().addShutdownHook(Thread(tenantRegistry::close, "kvk-shutdown"))
 
         logger.info { "KVK Application is launched" }
     }
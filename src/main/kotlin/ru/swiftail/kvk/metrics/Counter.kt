@@ -0,0 +1,23 @@
+package ru.swiftail.kvk.metrics
+
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Monotonic counter, striped so concurrent increments don't contend
+ */
+class Counter {
+
+    private val adder = LongAdder()
+
+    fun increment() {
+        if (Metrics.enabled) adder.increment()
+    }
+
+    fun add(value: Long) {
+        if (Metrics.enabled) adder.add(value)
+    }
+
+    val value: Long
+        get() = adder.sum()
+
+}
@@ -0,0 +1,97 @@
+package ru.swiftail.kvk.metrics
+
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.LongAdder
+
+class HistogramSnapshot(
+    val count: Long,
+    val sum: Double,
+    /**
+     * Quantile to value, in the unit of the histogram
+     */
+    val quantiles: Map<Double, Double>,
+    val max: Double
+)
+
+/**
+ * Log-linear histogram of non-negative longs, like HdrHistogram with about 6% precision.
+ *
+ * Every power of two is split into 16 buckets, recording is one atomic increment
+ * and doesn't allocate.
+ *
+ * @param scale multiplier from recorded values to the exported unit, e.g. 1e-9 for nanoseconds to seconds
+ */
+class Histogram(val scale: Double = 1.0) {
+
+    private val buckets = AtomicLongArray(BUCKETS)
+    private val count = LongAdder()
+    private val sum = LongAdder()
+
+    fun record(value: Long) {
+        if (!Metrics.enabled) return
+        val clamped = if (value < 0) 0 else value
+        buckets.incrementAndGet(indexOf(clamped))
+        count.increment()
+        sum.add(clamped)
+    }
+
+    /**
+     * Records the time elapsed since [start] taken with [Metrics.now]
+     */
+    fun recordSince(start: Long) {
+        // Started while metrics were disabled
+        if (start == 0L) return
+        record(System.nanoTime() - start)
+    }
+
+    fun snapshot(quantiles: DoubleArray = DEFAULT_QUANTILES): HistogramSnapshot {
+        val counts = LongArray(BUCKETS) { buckets.get(it) }
+        val total = counts.sum()
+
+        val values = LinkedHashMap<Double, Double>()
+        for (quantile in quantiles) {
+            values[quantile] = valueAt(counts, total, quantile) * scale
+        }
+        val highest = counts.indexOfLast { it > 0 }
+        val max = if (highest < 0) 0.0 else upperBoundOf(highest) * scale
+
+        return HistogramSnapshot(total, sum.sum() * scale, values, max)
+    }
+
+    private fun valueAt(counts: LongArray, total: Long, quantile: Double): Double {
+        if (total == 0L) return 0.0
+        val rank = Math.ceil(quantile * total).toLong().coerceAtLeast(1)
+        var seen = 0L
+        for (index in counts.indices) {
+            seen += counts[index]
+            if (seen >= rank) return upperBoundOf(index).toDouble()
+        }
+        return upperBoundOf(counts.size - 1).toDouble()
+    }
+
+    companion object {
+        private const val SUB_BUCKET_BITS = 4
+        private const val SUB_BUCKETS = 1 shl SUB_BUCKET_BITS
+
+        // Exponents up to 62 cover every positive long
+        private const val BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS
+
+        val DEFAULT_QUANTILES = doubleArrayOf(0.5, 0.9, 0.99, 0.999)
+
+        private fun indexOf(value: Long): Int {
+            if (value < SUB_BUCKETS) return value.toInt()
+            val exponent = 63 - java.lang.Long.numberOfLeadingZeros(value)
+            val subBucket = (value ushr (exponent - SUB_BUCKET_BITS)).toInt() and (SUB_BUCKETS - 1)
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket
+        }
+
+        private fun upperBoundOf(index: Int): Long {
+            if (index < SUB_BUCKETS) return index.toLong()
+            val exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1
+            val subBucket = (index % SUB_BUCKETS).toLong()
+            val width = 1L shl (exponent - SUB_BUCKET_BITS)
+            return (1L shl exponent) + subBucket * width + width - 1
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+package ru.swiftail.kvk.metrics
+
+import java.lang.management.ManagementFactory
+import javax.management.Attribute
+import javax.management.AttributeList
+import javax.management.AttributeNotFoundException
+import javax.management.DynamicMBean
+import javax.management.MBeanAttributeInfo
+import javax.management.MBeanInfo
+import javax.management.ObjectName
+
+/**
+ * Exposes every sample as a read-only attribute of one MBean, e.g. `kvk_command_seconds{alias=ping,quantile=0.99}`
+ */
+class JmxExporter(
+    private val objectName: ObjectName = ObjectName("ru.swiftail.kvk:type=Metrics"),
+    private val registry: MetricsRegistry = Metrics.registry
+) : MetricsExporter, DynamicMBean {
+
+    private val server = ManagementFactory.getPlatformMBeanServer()
+
+    override fun start() {
+        server.registerMBean(this, objectName)
+    }
+
+    override fun close() {
+        if (server.isRegistered(objectName)) server.unregisterMBean(objectName)
+    }
+
+    private fun attributes(): Map<String, Double> {
+        val attributes = LinkedHashMap<String, Double>()
+        for (metric in registry.collect()) {
+            for (sample in metric.samples) {
+                val labels = if (sample.labels.isEmpty()) "" else sample.labels.entries.joinToString(",", "{", "}")
+                attributes[metric.name + sample.suffix + labels] = sample.value
+            }
+        }
+        return attributes
+    }
+
+    override fun getAttribute(attribute: String): Any {
+        return attributes()[attribute] ?: throw AttributeNotFoundException(attribute)
+    }
+
+    override fun getAttributes(names: Array<out String>): AttributeList {
+        val attributes = attributes()
+        return AttributeList(names.mapNotNull { name -> attributes[name]?.let { Attribute(name, it) } })
+    }
+
+    override fun getMBeanInfo(): MBeanInfo {
+        val attributes = attributes().keys.map {
+            MBeanAttributeInfo(it, "java.lang.Double", it, true, false, false)
+        }
+        return MBeanInfo(javaClass.name, "KVK metrics", attributes.toTypedArray(), null, null, null)
+    }
+
+    override fun setAttribute(attribute: Attribute) {
+        throw UnsupportedOperationException("Metrics are read-only")
+    }
+
+    override fun setAttributes(attributes: AttributeList): AttributeList = AttributeList()
+
+    override fun invoke(actionName: String, params: Array<out Any>?, signature: Array<out String>?): Any? {
+        throw UnsupportedOperationException(actionName)
+    }
+
+}
@@ -0,0 +1,62 @@
+package ru.swiftail.kvk.metrics
+
+import mu.KotlinLogging
+import ru.swiftail.kvk.command.api.command.cache.CommandResultCache
+import ru.swiftail.kvk.vk.api.Commands
+import ru.swiftail.kvk.vk.api.media.MediaServices
+import ru.swiftail.kvk.vk.lowlevel.scheduler.ApiScheduler
+import java.net.InetSocketAddress
+import javax.inject.Singleton
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Enables metrics, registers the stats other components keep and starts the exporters
+ */
+@Singleton
+class MetricsBootstrap(
+    private val configuration: MetricsConfiguration,
+    private val mediaServices: MediaServices,
+    private val commands: Commands
+) {
+
+    private val exporters = mutableListOf<MetricsExporter>()
+
+    fun start() {
+        if (!configuration.enabled) return
+
+        Metrics.enabled = true
+        registerGauges(Metrics.registry)
+
+        configuration.prometheusPort?.let { exporters += PrometheusExporter(InetSocketAddress(it)) }
+        if (configuration.jmx) exporters += JmxExporter()
+        exporters.forEach { it.start() }
+
+        logger.info { "Metrics are enabled, ${exporters.size} exporter(s)" }
+    }
+
+    private fun registerGauges(registry: MetricsRegistry) {
+        registry.gauge("kvk_api_queue_depth", "API calls waiting for a worker", "priority") {
+            ApiScheduler.DEFAULT.stats().associate { it.priority.label to it.queued }
+        }
+        registry.gauge("kvk_api_running", "API calls being executed", "priority") {
+            ApiScheduler.DEFAULT.stats().associate { it.priority.label to it.running }
+        }
+        registry.gauge("kvk_media_buffers_allocated", "Direct buffers allocated for media transfers") {
+            mapOf("" to mediaServices.bufferPool.stats().allocated)
+        }
+        registry.gauge("kvk_media_buffers_in_use", "Direct buffers used by media transfers") {
+            mapOf("" to mediaServices.bufferPool.stats().inUse)
+        }
+        registry.gauge("kvk_media_buffer_waits", "Media transfers that waited for a buffer") {
+            mapOf("" to mediaServices.bufferPool.stats().waits)
+        }
+        registry.gauge("kvk_command_timeouts", "Timed out command runs, by primary alias", "alias") {
+            commands.timeoutStats()
+        }
+        registry.gauge("kvk_command_cache_entries", "Cached command results") {
+            mapOf("" to CommandResultCache.DEFAULT.size)
+        }
+    }
+
+}
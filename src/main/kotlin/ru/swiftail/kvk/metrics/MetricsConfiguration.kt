@@ -0,0 +1,10 @@
+package ru.swiftail.kvk.metrics
+
+class MetricsConfiguration(
+    val enabled: Boolean,
+    /**
+     * Port of the Prometheus endpoint, null to not serve it
+     */
+    val prometheusPort: Int?,
+    val jmx: Boolean
+)
@@ -0,0 +1,12 @@
+package ru.swiftail.kvk.metrics
+
+import java.io.Closeable
+
+/**
+ * Makes the metrics of a registry available outside the process
+ */
+interface MetricsExporter : Closeable {
+
+    fun start()
+
+}
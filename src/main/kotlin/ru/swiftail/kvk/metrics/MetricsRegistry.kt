@@ -0,0 +1,114 @@
+package ru.swiftail.kvk.metrics
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+
+enum class MetricType(val prometheusName: String) {
+    COUNTER("counter"),
+    GAUGE("gauge"),
+    SUMMARY("summary")
+}
+
+/**
+ * One exported value. [suffix] is appended to the metric name, e.g. `_sum` of a summary.
+ */
+class MetricSample(val labels: Map<String, String>, val value: Double, val suffix: String = "")
+
+class MetricSnapshot(
+    val name: String,
+    val help: String,
+    val type: MetricType,
+    val samples: List<MetricSample>
+)
+
+/**
+ * Metrics split by the value of one label, e.g. by command alias.
+ * Label values must come from a bounded set.
+ */
+class MetricFamily<T>(val label: String, private val factory: () -> T) {
+
+    private val children = ConcurrentHashMap<String, T>()
+
+    fun labels(value: String): T = children[value] ?: children.computeIfAbsent(value) { factory() }
+
+    fun forEach(action: (String, T) -> Unit) = children.forEach(action)
+
+}
+
+class MetricsRegistry {
+
+    private val collectors = CopyOnWriteArrayList<() -> MetricSnapshot>()
+
+    private val names = ConcurrentHashMap.newKeySet<String>()
+
+    private fun register(name: String, collector: () -> MetricSnapshot) {
+        require(names.add(name)) { "Metric $name is already registered" }
+        collectors += collector
+    }
+
+    fun counter(name: String, help: String): Counter {
+        val counter = Counter()
+        register(name) {
+            MetricSnapshot(name, help, MetricType.COUNTER, listOf(MetricSample(emptyMap(), counter.value.toDouble())))
+        }
+        return counter
+    }
+
+    fun counterFamily(name: String, help: String, label: String): MetricFamily<Counter> {
+        val family = MetricFamily(label) { Counter() }
+        register(name) {
+            val samples = mutableListOf<MetricSample>()
+            family.forEach { value, counter -> samples += MetricSample(mapOf(label to value), counter.value.toDouble()) }
+            MetricSnapshot(name, help, MetricType.COUNTER, samples)
+        }
+        return family
+    }
+
+    fun histogram(name: String, help: String, scale: Double = 1.0): Histogram {
+        val histogram = Histogram(scale)
+        register(name) { MetricSnapshot(name, help, MetricType.SUMMARY, summarySamples(emptyMap(), histogram)) }
+        return histogram
+    }
+
+    fun histogramFamily(name: String, help: String, label: String, scale: Double = 1.0): MetricFamily<Histogram> {
+        val family = MetricFamily(label) { Histogram(scale) }
+        register(name) {
+            val samples = mutableListOf<MetricSample>()
+            family.forEach { value, histogram -> samples += summarySamples(mapOf(label to value), histogram) }
+            MetricSnapshot(name, help, MetricType.SUMMARY, samples)
+        }
+        return family
+    }
+
+    /**
+     * Gauge read on every collection, for state other components already keep
+     *
+     * @param values value by label value, the key is ignored if there is no [label]
+     */
+    fun gauge(name: String, help: String, label: String? = null, values: () -> Map<String, Number>) {
+        register(name) {
+            val samples = values().map { (key, value) ->
+                MetricSample(if (label == null) emptyMap() else mapOf(label to key), value.toDouble())
+            }
+            MetricSnapshot(name, help, MetricType.GAUGE, samples)
+        }
+    }
+
+    fun collect(): List<MetricSnapshot> = collectors.map { it() }
+
+    private fun summarySamples(labels: Map<String, String>, histogram: Histogram): List<MetricSample> {
+        val snapshot = histogram.snapshot()
+        val samples = snapshot.quantiles.map { (quantile, value) ->
+            MetricSample(labels + ("quantile" to quantile.toString()), value)
+        }
+        return samples +
+                MetricSample(labels, snapshot.sum, "_sum") +
+                MetricSample(labels, snapshot.count.toDouble(), "_count") +
+                MetricSample(labels, snapshot.max, "_max")
+    }
+
+    companion object {
+        const val NANOS_TO_SECONDS = 1e-9
+    }
+
+}
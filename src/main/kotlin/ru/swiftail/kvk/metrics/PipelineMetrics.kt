@@ -0,0 +1,60 @@
+package ru.swiftail.kvk.metrics
+
+import ru.swiftail.kvk.metrics.MetricsRegistry.Companion.NANOS_TO_SECONDS
+
+/**
+ * Metrics of the path from an update to the reply
+ */
+object PipelineMetrics {
+
+    private val registry = Metrics.registry
+
+    val pollLatency = registry.histogram(
+        "kvk_long_poll_seconds", "Duration of long poll requests", NANOS_TO_SECONDS
+    )
+
+    val pollBatchSize = registry.histogram(
+        "kvk_long_poll_batch_size", "Updates per long poll response"
+    )
+
+    val decodeTime = registry.histogram(
+        "kvk_message_decode_seconds",
+        "Time to fully decode messages, only done when a handler needs more than text and ids",
+        NANOS_TO_SECONDS
+    )
+
+    val dispatchWait = registry.histogram(
+        "kvk_command_queue_wait_seconds",
+        "Time from receiving a command to starting it, including the wait for a handler permit",
+        NANOS_TO_SECONDS
+    )
+
+    val parseTime = registry.histogram(
+        "kvk_command_parse_seconds", "Time to tokenize and parse command arguments", NANOS_TO_SECONDS
+    )
+
+    val commandTime = registry.histogramFamily(
+        "kvk_command_seconds", "Time to process a command, by primary alias", "alias", NANOS_TO_SECONDS
+    )
+
+    val apiLatency = registry.histogramFamily(
+        "kvk_api_call_seconds", "Duration of API calls, excluding queueing, by method", "method", NANOS_TO_SECONDS
+    )
+
+    val apiErrors = registry.counterFamily(
+        "kvk_api_errors_total", "Failed API calls by VK error code, or client/other", "code"
+    )
+
+    val apiQueueWait = registry.histogramFamily(
+        "kvk_api_queue_wait_seconds", "Time API calls wait for a worker, by priority", "priority", NANOS_TO_SECONDS
+    )
+
+    val commandCache = registry.counterFamily(
+        "kvk_command_cache_total", "Runs of cacheable commands by result: hit, miss or coalesced", "result"
+    )
+
+    val repliesSent = registry.counter(
+        "kvk_messages_sent_total", "messages.send calls"
+    )
+
+}
@@ -0,0 +1,86 @@
+package ru.swiftail.kvk.metrics
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import mu.KotlinLogging
+import java.net.InetSocketAddress
+import java.nio.charset.StandardCharsets
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Serves the metrics in the Prometheus text format
+ */
+class PrometheusExporter(
+    private val bindAddress: InetSocketAddress,
+    private val path: String = "/metrics",
+    private val registry: MetricsRegistry = Metrics.registry
+) : MetricsExporter {
+
+    private var server: HttpServer? = null
+
+    override fun start() {
+        val server = HttpServer.create(bindAddress, 0)
+        server.createContext(path) { handle(it) }
+        server.start()
+        this.server = server
+        logger.info { "Serving metrics on ${server.address}$path" }
+    }
+
+    private fun handle(exchange: HttpExchange) {
+        try {
+            val body = format(registry.collect()).toByteArray(StandardCharsets.UTF_8)
+            exchange.responseHeaders.set("Content-Type", "text/plain; version=0.0.4; charset=utf-8")
+            exchange.sendResponseHeaders(200, body.size.toLong())
+            exchange.responseBody.write(body)
+        } catch (e: Exception) {
+            logger.warn(e) { "Failed to serve metrics" }
+        } finally {
+            exchange.close()
+        }
+    }
+
+    override fun close() {
+        server?.stop(0)
+    }
+
+    companion object {
+
+        fun format(metrics: List<MetricSnapshot>): String {
+            val out = StringBuilder()
+            for (metric in metrics) {
+                // Not part of the summary type, exported as a gauge of its own name
+                val (max, samples) = metric.samples.partition { it.suffix == MAX_SUFFIX }
+
+                appendFamily(out, metric.name, metric.help, metric.type, samples)
+                if (max.isNotEmpty()) {
+                    val name = metric.name + MAX_SUFFIX
+                    appendFamily(out, name, "Maximum of ${metric.name}", MetricType.GAUGE, max.map {
+                        MetricSample(it.labels, it.value)
+                    })
+                }
+            }
+            return out.toString()
+        }
+
+        private fun appendFamily(out: StringBuilder, name: String, help: String, type: MetricType, samples: List<MetricSample>) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n')
+            out.append("# TYPE ").append(name).append(' ').append(type.prometheusName).append('\n')
+            for (sample in samples) {
+                out.append(name).append(sample.suffix)
+                if (sample.labels.isNotEmpty()) {
+                    sample.labels.entries.joinTo(out, ",", "{", "}") { (key, value) -> "$key=\"${escape(value)}\"" }
+                }
+                out.append(' ').append(sample.value).append('\n')
+            }
+        }
+
+        private fun escape(value: String) = value
+            .replace("\\", "\\\\")
+            .replace("\"", "\\\"")
+            .replace("\n", "\\n")
+
+        private const val MAX_SUFFIX = "_max"
+    }
+
+}
@@ -0,0 +1,110 @@
+package ru.swiftail.kvk.permission
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import mu.KotlinLogging
+import java.io.Closeable
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Roles read from a text file, reloaded when it changes.
+ *
+ * ```
+ * # role <name> <permission>...
+ * role default kvk.help kvk.ping
+ * role moderator kvk.moderation -kvk.moderation.ban
+ * # default <role>...
+ * default default
+ * # user <user id> <role>...
+ * user 12345 moderator
+ * # chat <peer id> <user id> <role>..., roles in that chat only
+ * chat 2000000001 678 moderator
+ * ```
+ *
+ * A file that fails to parse is ignored and the previous roles stay in effect.
+ *
+ * @param reloadIntervalMillis how often the file is checked for changes, 0 to never reload
+ */
+class FilePermissionStorage(
+    private val file: Path,
+    reloadIntervalMillis: Long
+) : AbstractPermissionStorage(), Closeable {
+
+    @Volatile
+    private var data: PermissionData
+
+    private var lastModified = Files.getLastModifiedTime(file)
+
+    private val watcher = if (reloadIntervalMillis > 0) {
+        Executors.newSingleThreadScheduledExecutor(
+            ThreadFactoryBuilder().setNameFormat("permissions-reload").setDaemon(true).build()
+        )
+    } else null
+
+    init {
+        data = parse(Files.readAllLines(file))
+        watcher?.scheduleWithFixedDelay(::reloadIfChanged, reloadIntervalMillis, reloadIntervalMillis, TimeUnit.MILLISECONDS)
+    }
+
+    override fun load() = data
+
+    private fun reloadIfChanged() {
+        try {
+            val modified = Files.getLastModifiedTime(file)
+            if (modified == lastModified) return
+            lastModified = modified
+
+            data = parse(Files.readAllLines(file))
+            logger.info { "Reloaded permissions from $file" }
+            changed()
+        } catch (e: Exception) {
+            logger.error(e) { "Failed to reload permissions from $file, keeping the previous ones" }
+        }
+    }
+
+    override fun close() {
+        watcher?.shutdownNow()
+    }
+
+    companion object {
+        fun parse(lines: List<String>): PermissionData {
+            val roles = LinkedHashMap<String, Set<String>>()
+            val defaultRoles = LinkedHashSet<String>()
+            val userRoles = HashMap<Int, Set<String>>()
+            val chatRoles = HashMap<Int, MutableMap<Int, Set<String>>>()
+
+            lines.forEachIndexed { index, line ->
+                val words = line.substringBefore('#').trim().split(Regex("\\s+")).filter { it.isNotEmpty() }
+                if (words.isEmpty()) return@forEachIndexed
+
+                fun id(word: String?) = word?.toIntOrNull()
+                    ?: throw IllegalArgumentException("Line ${index + 1}: expected a number instead of $word")
+
+                when (words[0]) {
+                    "role" -> {
+                        require(words.size >= 2) { "Line ${index + 1}: role without a name" }
+                        roles[words[1]] = roles[words[1]].orEmpty() + words.drop(2)
+                    }
+                    "default" -> defaultRoles += words.drop(1)
+                    "user" -> {
+                        val userId = id(words.getOrNull(1))
+                        userRoles[userId] = userRoles[userId].orEmpty() + words.drop(2)
+                    }
+                    "chat" -> {
+                        val chat = chatRoles.getOrPut(id(words.getOrNull(1))) { HashMap() }
+                        val userId = id(words.getOrNull(2))
+                        chat[userId] = chat[userId].orEmpty() + words.drop(3)
+                    }
+                    else -> throw IllegalArgumentException("Line ${index + 1}: unknown entry ${words[0]}")
+                }
+            }
+
+            return PermissionData(roles, defaultRoles, userRoles, chatRoles)
+        }
+    }
+
+}
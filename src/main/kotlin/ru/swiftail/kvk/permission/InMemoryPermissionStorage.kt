@@ -0,0 +1,35 @@
+package ru.swiftail.kvk.permission
+
+/**
+ * Roles kept in memory, by default everyone has the [PermissionData.DEFAULT_ROLE] that grants `*`
+ */
+class InMemoryPermissionStorage(initial: PermissionData = PermissionData.ALLOW_ALL) : AbstractPermissionStorage() {
+
+    @Volatile
+    private var data = initial
+
+    override fun load() = data
+
+    fun setRole(role: String, permissions: Set<String>) = update {
+        PermissionData(it.roles + (role to permissions), it.defaultRoles, it.userRoles, it.chatRoles)
+    }
+
+    fun setDefaultRoles(roles: Set<String>) = update {
+        PermissionData(it.roles, roles, it.userRoles, it.chatRoles)
+    }
+
+    fun setUserRoles(userId: Int, roles: Set<String>) = update {
+        PermissionData(it.roles, it.defaultRoles, it.userRoles + (userId to roles), it.chatRoles)
+    }
+
+    fun setChatRoles(peerId: Int, userId: Int, roles: Set<String>) = update {
+        val chat = it.chatRoles[peerId].orEmpty() + (userId to roles)
+        PermissionData(it.roles, it.defaultRoles, it.userRoles, it.chatRoles + (peerId to chat))
+    }
+
+    private fun update(change: (PermissionData) -> PermissionData) {
+        synchronized(this) { data = change(data) }
+        changed()
+    }
+
+}
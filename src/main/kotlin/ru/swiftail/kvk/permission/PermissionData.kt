@@ -0,0 +1,40 @@
+package ru.swiftail.kvk.permission
+
+/**
+ * Roles and their holders, as loaded from a [PermissionStorage]
+ *
+ * @param roles permission nodes of each role
+ * @param defaultRoles roles every user has
+ * @param userRoles roles of users in every chat
+ * @param chatRoles roles of users in one chat, e.g. its admins, by peer id and then user id
+ */
+class PermissionData(
+    val roles: Map<String, Set<String>>,
+    val defaultRoles: Set<String>,
+    val userRoles: Map<Int, Set<String>>,
+    val chatRoles: Map<Int, Map<Int, Set<String>>>
+) {
+
+    fun rolesOf(userId: Int, peerId: Int): Set<String> {
+        val user = userRoles[userId]
+        val chat = chatRoles[peerId]?.get(userId)
+        if (user == null && chat == null) return defaultRoles
+
+        val roles = LinkedHashSet(defaultRoles)
+        user?.let { roles += it }
+        chat?.let { roles += it }
+        return roles
+    }
+
+    companion object {
+        const val DEFAULT_ROLE = "default"
+
+        /**
+         * Everyone may do everything, as before permissions were checked
+         */
+        val ALLOW_ALL = PermissionData(
+            mapOf(DEFAULT_ROLE to setOf("*")), setOf(DEFAULT_ROLE), emptyMap(), emptyMap()
+        )
+    }
+
+}
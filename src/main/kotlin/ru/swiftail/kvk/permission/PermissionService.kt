@@ -0,0 +1,55 @@
+package ru.swiftail.kvk.permission
+
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
+import javax.inject.Singleton
+
+/**
+ * Resolves the permissions a user has in a chat.
+ *
+ * Role sets are compiled once and shared, and each user and chat pair remembers its resolved set.
+ * Everything is dropped when the storage reports a change.
+ */
+@Singleton
+class PermissionService(
+    private val storage: PermissionStorage,
+    private val configuration: PermissionsConfiguration
+) {
+
+    /**
+     * Snapshot of the storage with its caches, replaced as a whole on changes
+     */
+    private class Generation(val data: PermissionData, cacheSize: Long) {
+        val compiled = HashMap<Set<String>, ResolvedPermissions>()
+        val resolved: Cache<Long, ResolvedPermissions> = CacheBuilder.newBuilder()
+            .maximumSize(cacheSize)
+            .build()
+    }
+
+    @Volatile
+    private var generation = Generation(storage.load(), configuration.cacheSize)
+
+    init {
+        storage.onChange { invalidate() }
+    }
+
+    fun resolve(userId: Int, peerId: Int): ResolvedPermissions {
+        val generation = generation
+        val key = (peerId.toLong() shl 32) or (userId.toLong() and 0xffffffffL)
+        return generation.resolved.get(key) { compile(generation, generation.data.rolesOf(userId, peerId)) }
+    }
+
+    fun invalidate() {
+        generation = Generation(storage.load(), configuration.cacheSize)
+    }
+
+    private fun compile(generation: Generation, roles: Set<String>): ResolvedPermissions {
+        return synchronized(generation.compiled) {
+            generation.compiled.getOrPut(roles) {
+                val nodes = roles.flatMap { generation.data.roles[it].orEmpty() }
+                ResolvedPermissions(roles, PermissionTrie.compile(nodes))
+            }
+        }
+    }
+
+}
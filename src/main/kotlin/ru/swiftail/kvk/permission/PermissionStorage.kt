@@ -0,0 +1,29 @@
+package ru.swiftail.kvk.permission
+
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * Source of roles, replace the bean to keep them elsewhere
+ */
+interface PermissionStorage {
+
+    fun load(): PermissionData
+
+    /**
+     * [listener] is called after the data changed, resolved permissions are dropped then
+     */
+    fun onChange(listener: () -> Unit)
+
+}
+
+abstract class AbstractPermissionStorage : PermissionStorage {
+
+    private val listeners = CopyOnWriteArrayList<() -> Unit>()
+
+    override fun onChange(listener: () -> Unit) {
+        listeners += listener
+    }
+
+    protected fun changed() = listeners.forEach { it() }
+
+}
@@ -0,0 +1,16 @@
+package ru.swiftail.kvk.permission
+
+import io.micronaut.context.annotation.Factory
+import javax.inject.Singleton
+
+@Factory
+class PermissionStorageFactory {
+
+    @Singleton
+    fun getPermissionStorage(configuration: PermissionsConfiguration): PermissionStorage {
+        return configuration.file
+            ?.let { FilePermissionStorage(it, configuration.reloadIntervalMillis) }
+            ?: InMemoryPermissionStorage()
+    }
+
+}
@@ -0,0 +1,104 @@
+package ru.swiftail.kvk.permission
+
+/**
+ * Permission nodes compiled into a trie of dot-separated segments.
+ *
+ * A node grants itself and everything below it, `kvk.admin` grants `kvk.admin.kick`,
+ * `kvk.admin.*` is the same as `kvk.admin` and `*` grants everything.
+ * Nodes prefixed with `-` deny. The most specific node wins, deny wins over grant on the same node.
+ * Nodes are matched ignoring case.
+ *
+ * [check] walks one trie level per segment of the checked permission and allocates nothing.
+ */
+class PermissionTrie private constructor(private val root: Node) {
+
+    private class Node {
+        var keys = arrayOfNulls<String>(0)
+        var hashes = IntArray(0)
+        var children = arrayOfNulls<Node>(0)
+        var size = 0
+
+        var value = UNSET
+
+        fun find(hash: Int, permission: String, start: Int, length: Int): Node? {
+            for (i in 0 until size) {
+                if (hashes[i] != hash) continue
+                val key = keys[i]!!
+                if (key.length == length && key.regionMatches(0, permission, start, length, ignoreCase = true)) {
+                    return children[i]
+                }
+            }
+            return null
+        }
+
+        fun getOrAdd(segment: String): Node {
+            val hash = hash(segment, 0, segment.length)
+            find(hash, segment, 0, segment.length)?.let { return it }
+
+            if (size == keys.size) {
+                val capacity = maxOf(2, size * 2)
+                keys = keys.copyOf(capacity)
+                hashes = hashes.copyOf(capacity)
+                children = children.copyOf(capacity)
+            }
+            return Node().also {
+                keys[size] = segment
+                hashes[size] = hash
+                children[size] = it
+                size++
+            }
+        }
+    }
+
+    fun check(permission: String): Boolean {
+        var node = root
+        var decision = node.value
+        var start = 0
+        val length = permission.length
+
+        while (start <= length) {
+            var end = start
+            var hash = 0
+            while (end < length) {
+                val char = permission[end]
+                if (char == '.') break
+                hash = 31 * hash + Character.toLowerCase(char).toInt()
+                end++
+            }
+
+            node = node.find(hash, permission, start, end - start) ?: break
+            if (node.value != UNSET) decision = node.value
+            start = end + 1
+        }
+
+        return decision == GRANT
+    }
+
+    companion object {
+        private const val UNSET: Byte = 0
+        private const val GRANT: Byte = 1
+        private const val DENY: Byte = 2
+
+        fun compile(nodes: Collection<String>): PermissionTrie {
+            val root = Node()
+            for (raw in nodes) {
+                val deny = raw.startsWith("-")
+                val node = raw.removePrefix("-").trim().removeSuffix("*").removeSuffix(".")
+
+                val target = if (node.isEmpty()) root else node.split('.').fold(root) { parent, segment ->
+                    parent.getOrAdd(segment)
+                }
+                if (deny) target.value = DENY
+                else if (target.value == UNSET) target.value = GRANT
+            }
+            return PermissionTrie(root)
+        }
+
+        private fun hash(text: String, start: Int, end: Int): Int {
+            var hash = 0
+            for (i in start until end) hash = 31 * hash + Character.toLowerCase(text[i]).toInt()
+            return hash
+        }
+    }
+
+}
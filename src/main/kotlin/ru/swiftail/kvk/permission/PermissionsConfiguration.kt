@@ -0,0 +1,15 @@
+package ru.swiftail.kvk.permission
+
+import java.nio.file.Path
+
+class PermissionsConfiguration(
+    /**
+     * Roles file, see [FilePermissionStorage], null to allow everything to everyone
+     */
+    val file: Path?,
+    val reloadIntervalMillis: Long,
+    /**
+     * How many user and chat pairs keep their resolved permissions
+     */
+    val cacheSize: Long
+)
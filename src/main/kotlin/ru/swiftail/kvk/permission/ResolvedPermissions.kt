@@ -0,0 +1,21 @@
+package ru.swiftail.kvk.permission
+
+/**
+ * Permissions of a set of roles, shared by every user holding exactly these roles.
+ *
+ * Instances are replaced when the roles change, so one can key caches of permission-dependent output.
+ */
+class ResolvedPermissions(
+    val roles: Set<String>,
+    private val trie: PermissionTrie
+) {
+
+    fun has(permission: String): Boolean = trie.check(permission)
+
+    override fun toString() = "ResolvedPermissions(roles=$roles)"
+
+    companion object {
+        val ALL = ResolvedPermissions(emptySet(), PermissionTrie.compile(listOf("*")))
+    }
+
+}
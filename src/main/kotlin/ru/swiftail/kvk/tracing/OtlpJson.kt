@@ -0,0 +1,62 @@
+package ru.swiftail.kvk.tracing
+
+import com.google.gson.JsonArray
+import com.google.gson.JsonObject
+
+/**
+ * Traces in the OTLP/JSON encoding, one `ExportTraceServiceRequest` per trace
+ */
+object OtlpJson {
+
+    private const val SERVICE_NAME = "kvk"
+
+    // SPAN_KIND_INTERNAL and SPAN_KIND_SERVER
+    private const val KIND_INTERNAL = 1
+    private const val KIND_SERVER = 2
+
+    fun encode(trace: Trace): JsonObject {
+        val spans = JsonArray()
+        trace.spans().forEach { spans.add(encode(trace, it)) }
+
+        val scopeSpans = JsonObject().apply {
+            add("scope", JsonObject().apply { addProperty("name", SERVICE_NAME) })
+            add("spans", spans)
+        }
+        val resourceSpans = JsonObject().apply {
+            add("resource", JsonObject().apply {
+                add("attributes", attributes(mapOf("service.name" to SERVICE_NAME)))
+            })
+            add("scopeSpans", JsonArray().apply { add(scopeSpans) })
+        }
+        return JsonObject().apply {
+            add("resourceSpans", JsonArray().apply { add(resourceSpans) })
+        }
+    }
+
+    private fun encode(trace: Trace, span: Span): JsonObject {
+        // Spans left open, e.g. by a cancelled command, end with the trace
+        val end = if (span.isEnded) span.endNanos else trace.root.endNanos.takeIf { it != 0L } ?: System.nanoTime()
+
+        return JsonObject().apply {
+            addProperty("traceId", trace.traceId)
+            addProperty("spanId", span.spanId)
+            span.parentSpanId?.let { addProperty("parentSpanId", it) }
+            addProperty("name", span.name)
+            addProperty("kind", if (span.parentSpanId == null) KIND_SERVER else KIND_INTERNAL)
+            // 64-bit integers are strings in OTLP/JSON
+            addProperty("startTimeUnixNano", trace.toEpochNanos(span.startNanos).toString())
+            addProperty("endTimeUnixNano", trace.toEpochNanos(end).toString())
+            add("attributes", attributes(span.attributes()))
+        }
+    }
+
+    private fun attributes(values: Map<String, String>) = JsonArray().apply {
+        values.forEach { (key, value) ->
+            add(JsonObject().apply {
+                addProperty("key", key)
+                add("value", JsonObject().apply { addProperty("stringValue", value) })
+            })
+        }
+    }
+
+}
@@ -0,0 +1,22 @@
+package ru.swiftail.kvk.tracing
+
+import java.util.ArrayDeque
+
+/**
+ * Last [capacity] slow traces
+ */
+class SlowTraceBuffer(private val capacity: Int) {
+
+    private val traces = ArrayDeque<Trace>(capacity)
+
+    @Synchronized
+    fun add(trace: Trace) {
+        if (capacity <= 0) return
+        if (traces.size == capacity) traces.removeFirst()
+        traces.addLast(trace)
+    }
+
+    @Synchronized
+    fun snapshot(): List<Trace> = ArrayList(traces)
+
+}
@@ -0,0 +1,76 @@
+package ru.swiftail.kvk.tracing
+
+import java.util.concurrent.ThreadLocalRandom
+
+/**
+ * Timed step of handling an update
+ */
+class Span internal constructor(
+    val trace: Trace,
+    val name: String,
+    val spanId: String,
+    val parentSpanId: String?,
+    val startNanos: Long
+) {
+
+    @Volatile
+    var endNanos = 0L
+        private set
+
+    private val attributes = LinkedHashMap<String, String>(4)
+
+    fun attribute(key: String, value: Any): Span {
+        synchronized(attributes) { attributes[key] = value.toString() }
+        return this
+    }
+
+    fun attributes(): Map<String, String> = synchronized(attributes) { LinkedHashMap(attributes) }
+
+    fun end() {
+        if (endNanos == 0L) endNanos = System.nanoTime()
+    }
+
+    val isEnded: Boolean
+        get() = endNanos != 0L
+
+}
+
+/**
+ * Spans of one update, from its receipt to the last reply
+ *
+ * @param receivedEpochNanos when the event source got the update
+ */
+class Trace(val traceId: String, receivedEpochNanos: Long) {
+
+    // Spans are timed with nanoTime, exported in epoch time
+    private val epochOffsetNanos = System.currentTimeMillis() * 1_000_000 - System.nanoTime()
+
+    private val spans = ArrayList<Span>()
+
+    val root: Span = startSpan("message", null, receivedEpochNanos - epochOffsetNanos)
+
+    fun startSpan(name: String, parent: Span? = root, startNanos: Long = System.nanoTime()): Span {
+        val span = Span(this, name, newSpanId(), parent?.spanId, startNanos)
+        synchronized(spans) { spans += span }
+        return span
+    }
+
+    fun spans(): List<Span> = synchronized(spans) { ArrayList(spans) }
+
+    fun toEpochNanos(nanos: Long) = nanos + epochOffsetNanos
+
+    val durationNanos: Long
+        get() = (if (root.isEnded) root.endNanos else System.nanoTime()) - root.startNanos
+
+    companion object {
+        fun newTraceId(): String {
+            val random = ThreadLocalRandom.current()
+            return hex(random.nextLong()) + hex(random.nextLong())
+        }
+
+        private fun newSpanId() = hex(ThreadLocalRandom.current().nextLong())
+
+        private fun hex(value: Long) = java.lang.Long.toHexString(value).padStart(16, '0')
+    }
+
+}
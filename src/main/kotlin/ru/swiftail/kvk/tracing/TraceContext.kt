@@ -0,0 +1,41 @@
+package ru.swiftail.kvk.tracing
+
+import kotlinx.coroutines.withContext
+import kotlin.coroutines.AbstractCoroutineContextElement
+import kotlin.coroutines.CoroutineContext
+import kotlin.coroutines.coroutineContext
+
+/**
+ * Trace of the update a coroutine handles, new spans become children of [span]
+ */
+class TraceContext(val span: Span) : AbstractCoroutineContextElement(Key) {
+
+    val trace: Trace
+        get() = span.trace
+
+    fun startChild(name: String): Span = trace.startSpan(name, span)
+
+    companion object Key : CoroutineContext.Key<TraceContext>
+}
+
+/**
+ * Runs [block] in a child span of the current trace, or just runs it outside of a trace
+ */
+suspend fun <T> traced(name: String, vararg attributes: Pair<String, Any>, block: suspend () -> T): T {
+    val parent = coroutineContext[TraceContext] ?: return block()
+    val span = parent.startChild(name)
+    attributes.forEach { (key, value) -> span.attribute(key, value) }
+    try {
+        return withContext(TraceContext(span)) { block() }
+    } catch (e: Throwable) {
+        span.attribute("error", e.javaClass.simpleName)
+        throw e
+    } finally {
+        span.end()
+    }
+}
+
+/**
+ * Starts a child span of the current trace without making it current, for steps without nested spans
+ */
+suspend fun startSpan(name: String): Span? = coroutineContext[TraceContext]?.startChild(name)
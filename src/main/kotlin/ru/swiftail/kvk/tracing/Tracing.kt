@@ -0,0 +1,111 @@
+package ru.swiftail.kvk.tracing
+
+import com.google.gson.JsonObject
+import mu.KotlinLogging
+import java.io.Writer
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.TimeUnit
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Process-wide tracing of updates.
+ *
+ * The event source stamps each update with [TRACE_FIELD], so the trace survives the event bus,
+ * and the process handling the update records its spans. Finished traces longer than
+ * the slow threshold go to a ring buffer and, if configured, to an OTLP/JSON file.
+ */
+object Tracing {
+
+    /**
+     * Field added to updates, `<trace id>:<epoch nanos of receipt>`
+     */
+    const val TRACE_FIELD = "kvk_trace"
+
+    @Volatile
+    @JvmStatic
+    var enabled = false
+        private set
+
+    @Volatile
+    private var slowThresholdNanos = TimeUnit.SECONDS.toNanos(1)
+
+    @Volatile
+    var slowTraces = SlowTraceBuffer(0)
+        private set
+
+    private var exportFile: Path? = null
+
+    private var exportWriter: Writer? = null
+
+    fun configure(configuration: TracingConfiguration) {
+        slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(configuration.slowThresholdMillis)
+        slowTraces = SlowTraceBuffer(configuration.bufferSize)
+        exportFile = configuration.exportFile
+        enabled = configuration.enabled
+    }
+
+    /**
+     * Stamps a just received update, called by event sources
+     */
+    fun markReceived(update: JsonObject) {
+        if (!enabled) return
+        val epochNanos = System.currentTimeMillis() * 1_000_000
+        update.addProperty(TRACE_FIELD, "${Trace.newTraceId()}:$epochNanos")
+    }
+
+    /**
+     * Starts recording a stamped update, the time it spent before reaching this process becomes the `queue` span
+     */
+    fun continueTrace(update: JsonObject): TraceContext? {
+        if (!enabled) return null
+        val stamp = update[TRACE_FIELD]?.takeIf { it.isJsonPrimitive }?.asString ?: return null
+
+        val separator = stamp.indexOf(':')
+        val receivedEpochNanos = stamp.substring(separator + 1).toLongOrNull()
+        if (separator <= 0 || receivedEpochNanos == null) return null
+
+        val trace = Trace(stamp.substring(0, separator), receivedEpochNanos)
+        trace.startSpan("queue", startNanos = trace.root.startNanos).end()
+        return TraceContext(trace.root)
+    }
+
+    fun finish(trace: Trace) {
+        trace.root.end()
+        if (trace.durationNanos < slowThresholdNanos) return
+
+        slowTraces.add(trace)
+        if (exportFile != null) export(trace)
+    }
+
+    /**
+     * Writes the buffered slow traces as OTLP/JSON lines
+     *
+     * @return number of written traces
+     */
+    fun dump(file: Path): Int {
+        val traces = slowTraces.snapshot()
+        Files.newBufferedWriter(file).use { writer ->
+            traces.forEach { writer.write(OtlpJson.encode(it).toString()); writer.write("\n") }
+        }
+        return traces.size
+    }
+
+    @Synchronized
+    private fun export(trace: Trace) {
+        try {
+            val writer = exportWriter ?: Files.newBufferedWriter(
+                exportFile!!, StandardOpenOption.CREATE, StandardOpenOption.APPEND
+            ).also { exportWriter = it }
+
+            writer.write(OtlpJson.encode(trace).toString())
+            writer.write("\n")
+            writer.flush()
+        } catch (e: Exception) {
+            logger.warn(e) { "Could not export trace ${trace.traceId}" }
+        }
+    }
+
+}
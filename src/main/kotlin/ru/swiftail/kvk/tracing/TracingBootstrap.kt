@@ -0,0 +1,21 @@
+package ru.swiftail.kvk.tracing
+
+import mu.KotlinLogging
+import javax.inject.Singleton
+
+private val logger = KotlinLogging.logger {}
+
+@Singleton
+class TracingBootstrap(private val configuration: TracingConfiguration) {
+
+    fun start() {
+        Tracing.configure(configuration)
+        if (!configuration.enabled) return
+
+        TracingControl().register()
+        logger.info {
+            "Tracing is enabled, keeping ${configuration.bufferSize} traces slower than ${configuration.slowThresholdMillis} ms"
+        }
+    }
+
+}
@@ -0,0 +1,16 @@
+package ru.swiftail.kvk.tracing
+
+import java.nio.file.Path
+
+class TracingConfiguration(
+    val enabled: Boolean,
+    /**
+     * Traces at least this long are kept in the slow trace buffer and exported
+     */
+    val slowThresholdMillis: Long,
+    val bufferSize: Int,
+    /**
+     * File slow traces are appended to as OTLP/JSON lines, null to only buffer them
+     */
+    val exportFile: Path?
+)
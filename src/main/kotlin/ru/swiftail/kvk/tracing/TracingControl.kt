@@ -0,0 +1,37 @@
+package ru.swiftail.kvk.tracing
+
+import java.lang.management.ManagementFactory
+import java.nio.file.Paths
+import javax.management.ObjectName
+
+interface TracingControlMBean {
+
+    val slowTraceCount: Int
+
+    /**
+     * Writes the buffered slow traces to [path], returns their number
+     */
+    fun dump(path: String): Int
+
+}
+
+/**
+ * JMX handle for dumping slow traces on demand
+ */
+class TracingControl : TracingControlMBean {
+
+    override val slowTraceCount: Int
+        get() = Tracing.slowTraces.snapshot().size
+
+    override fun dump(path: String): Int = Tracing.dump(Paths.get(path))
+
+    fun register() {
+        val server = ManagementFactory.getPlatformMBeanServer()
+        if (!server.isRegistered(OBJECT_NAME)) server.registerMBean(this, OBJECT_NAME)
+    }
+
+    companion object {
+        val OBJECT_NAME = ObjectName("ru.swiftail.kvk:type=Tracing")
+    }
+
+}
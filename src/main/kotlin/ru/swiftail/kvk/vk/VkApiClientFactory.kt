@@ -3,15 +3,23 @@ package ru.swiftail.kvk.vk
 import com.vk.api.sdk.client.VkApiClient
 import com.vk.api.sdk.httpclient.HttpTransportClient
 import io.micronaut.context.annotation.Factory
+import mu.KotlinLogging
 import javax.inject.Singleton
 
+private val logger = KotlinLogging.logger {}
+
 @Factory
 class VkApiClientFactory {
 
     @Singleton
-    fun createVkApiClient(): VkApiClient {
+    fun createVkApiClient(configuration: VkApiConfiguration): VkApiClient {
         val transportClient = HttpTransportClient()
-        return VkApiClient(transportClient)
+        val endpoint = configuration.endpoint ?: return VkApiClient(transportClient)
+
+        logger.warn { "Using API endpoint $endpoint instead of VK" }
+        return object : VkApiClient(transportClient) {
+            override fun getApiEndpoint(): String = endpoint
+        }
     }
 
 }
@@ -0,0 +1,8 @@
+package ru.swiftail.kvk.vk
+
+class VkApiConfiguration(
+    /**
+     * Base url of API methods, null for VK itself. Points the bot at a stand-in server in load tests.
+     */
+    val endpoint: String?
+)
@@ -1,46 +1,83 @@
 package ru.swiftail.kvk.vk.api
 
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.TimeoutCancellationException
+import kotlinx.coroutines.withTimeout
 import mu.KotlinLogging
 import ru.swiftail.kvk.command.api.command.CommandException
 import ru.swiftail.kvk.command.api.command.CommandSource
 import ru.swiftail.kvk.command.api.command.args.ArgumentParseException
 import ru.swiftail.kvk.command.api.command.dispatcher.SimpleDispatcher
+import ru.swiftail.kvk.command.api.command.spec.CommandSpec
+import ru.swiftail.kvk.metrics.Metrics
+import ru.swiftail.kvk.metrics.PipelineMetrics
+import ru.swiftail.kvk.tracing.traced
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.LongAdder
 import javax.inject.Singleton
 
 private val logger = KotlinLogging.logger {}
 
 @Singleton
-class Commands(private val dispatcher: SimpleDispatcher) {
+class Commands(
+    private val dispatcher: SimpleDispatcher,
+    private val configuration: CommandsConfiguration
+) {
 
-    // Ugly as fuck
+    private val timeouts = ConcurrentHashMap<String, LongAdder>()
+
+    /**
+     * Number of timed out runs by primary alias
+     */
+    fun timeoutStats(): Map<String, Long> = timeouts.mapValues { it.value.sum() }
+
+    /**
+     * Replies aren't awaited one by one, they are sent as one message
+     */
     suspend fun execute(alias: String, args: String, source: CommandSource) {
 
         val maybeMapping = dispatcher.get(alias, source).orElse(null)
 
         maybeMapping?.apply {
             val mapping = this
+            val timeout = (mapping.callable as? CommandSpec)?.timeout ?: configuration.defaultTimeout
+            val start = Metrics.now()
             try {
                 val commandLine = "$alias $args"
-                dispatcher.process(source, commandLine)
+                // API calls made by the command are cancelled together with it
+                withTimeout(timeout.toMillis()) {
+                    traced("command", "command.alias" to mapping.primaryAlias) {
+                        dispatcher.process(source, commandLine)
+                    }
+                }
+            } catch (e: TimeoutCancellationException) {
+                timeouts.computeIfAbsent(mapping.primaryAlias) { LongAdder() }.increment()
+                logger.warn { "Command ${mapping.primaryAlias} timed out after ${timeout.toMillis()}ms" }
+                source.reply("Команда выполнялась слишком долго и была остановлена, попробуйте позже")
+            } catch (e: CancellationException) {
+                // The listener is shutting down, don't report it as a server error
+                throw e
             } catch (e: CommandException) {
 
-                source.reply("Ошибка: ${e.message}").await()
+                source.reply("Ошибка: ${e.message}")
 
                 if (e.shouldIncludeUsage()) {
                     when (e) {
                         is ArgumentParseException.WithUsage -> {
-                            source.reply("Использование: ${e.usage}").await()
+                            source.reply("Использование: ${e.usage}")
                         }
                         else -> {
-                            source.reply("Использование: ${mapping.primaryAlias} ${mapping.callable.getUsage(source)}").await()
+                            source.reply("Использование: ${mapping.primaryAlias} ${mapping.callable.getUsage(source)}")
                         }
                     }
                 }
 
             } catch (e: Throwable) {
                 logger.error(e) { "Server error while processing command" }
-                source.reply("Ошибка сервера").await()
-                source.reply(e.toString()).await()
+                source.reply("Ошибка сервера")
+                source.reply(e.toString())
+            } finally {
+                if (start != 0L) PipelineMetrics.commandTime.labels(mapping.primaryAlias).recordSince(start)
             }
         } ?: run {
             source.reply("Команда не найдена")
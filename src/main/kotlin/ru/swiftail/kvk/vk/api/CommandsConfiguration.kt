@@ -0,0 +1,10 @@
+package ru.swiftail.kvk.vk.api
+
+import java.time.Duration
+
+class CommandsConfiguration(
+    /**
+     * Time limit of commands that don't set their own
+     */
+    val defaultTimeout: Duration
+)
@@ -1,11 +1,11 @@
 package ru.swiftail.kvk.vk.api
 
+import com.google.common.util.concurrent.RateLimiter
 import com.vk.api.sdk.client.VkApiClient
 import com.vk.api.sdk.client.actors.GroupActor
-import javax.inject.Singleton
 
-@Singleton
 class VkContext (
     val actor: GroupActor,
-    val llVk: VkApiClient
+    val llVk: VkApiClient,
+    val rateLimiter: RateLimiter
 )
@@ -1,12 +1,32 @@
 package ru.swiftail.kvk.vk.api.bot
 
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.runBlocking
 import ru.swiftail.kvk.vk.api.VkContext
-import javax.inject.Singleton
+import ru.swiftail.kvk.vk.api.broadcast.Broadcaster
+import ru.swiftail.kvk.vk.api.media.MediaServices
+import java.io.Closeable
 
-@Singleton
-class BotVk(val vkContext: VkContext) {
+class BotVk(val vkContext: VkContext, val mediaServices: MediaServices) : Closeable {
+
+    /**
+     * Background work of this group, e.g. sending buffered replies, cancelled on [close]
+     */
+    internal val scope = CoroutineScope(Dispatchers.Default + SupervisorJob())
 
     val messages = BotVkMessages(this)
-    val upload = BotVkUpload(vkContext)
+    val upload = BotVkUpload(vkContext, mediaServices)
+    val broadcasts = Broadcaster(this)
+
+    /**
+     * Sends the buffered replies and stops the background work
+     */
+    override fun close() {
+        runBlocking { messages.flushAll() }
+        scope.cancel()
+    }
 
 }
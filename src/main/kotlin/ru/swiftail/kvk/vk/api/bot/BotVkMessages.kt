@@ -1,15 +1,76 @@
 package ru.swiftail.kvk.vk.api.bot
 
+import com.vk.api.sdk.queries.messages.MessagesSendQuery
 import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Job
+import ru.swiftail.kvk.command.api.command.cache.ReplyRecorder
+import ru.swiftail.kvk.metrics.PipelineMetrics
+import ru.swiftail.kvk.tracing.TraceContext
 import ru.swiftail.kvk.vk.api.message.MessageQueryBuilder
+import ru.swiftail.kvk.vk.api.message.OutgoingBuffer
+import ru.swiftail.kvk.vk.lowlevel.await
 import ru.swiftail.kvk.vk.lowlevel.runAsync
+import ru.swiftail.kvk.vk.lowlevel.scheduler.ApiPriority
+import kotlin.coroutines.coroutineContext
 
 class BotVkMessages(private val botVk: BotVk) {
 
-    suspend fun send(block: suspend MessageQueryBuilder.() -> Unit): Deferred<Int> {
+    // Texts are recorded when they are buffered, not when the buffer is sent
+    private val outgoing = OutgoingBuffer(botVk.scope, COALESCE_WINDOW_MS) { peerId, text ->
+        query {
+            setPeerId(peerId)
+            setText(text)
+        }.await(botVk.vkContext.rateLimiter)
+    }
+
+    suspend fun send(
+        priority: ApiPriority = ApiPriority.INTERACTIVE,
+        block: suspend MessageQueryBuilder.() -> Unit
+    ): Deferred<Int> {
+        coroutineContext[ReplyRecorder]?.other()
+        return query(block).runAsync(
+            botVk.vkContext.rateLimiter, priority, coroutineContext[Job], coroutineContext[TraceContext]
+        )
+    }
+
+    /**
+     * Sends the message and suspends until VK returns its id
+     */
+    suspend fun sendAndAwait(
+        priority: ApiPriority? = null,
+        block: suspend MessageQueryBuilder.() -> Unit
+    ): Int {
+        coroutineContext[ReplyRecorder]?.other()
+        return query(block).await(botVk.vkContext.rateLimiter, priority)
+    }
+
+    private suspend fun query(block: suspend MessageQueryBuilder.() -> Unit): MessagesSendQuery {
         val builder = MessageQueryBuilder(botVk)
         block(builder)
-        return builder.build().runAsync()
+        PipelineMetrics.repliesSent.increment()
+        return builder.build()
+    }
+
+    /**
+     * Sends text to the peer, replies sent shortly after each other are joined into one message
+     */
+    suspend fun sendText(peerId: Int, text: String): Deferred<Int> {
+        coroutineContext[ReplyRecorder]?.text(peerId, text)
+        return outgoing.append(peerId, text)
+    }
+
+    /**
+     * Sends the text buffered by [sendText] right away
+     */
+    suspend fun flush(peerId: Int) = outgoing.flush(peerId)
+
+    /**
+     * Sends the text buffered for every peer
+     */
+    suspend fun flushAll() = outgoing.flushAll()
+
+    companion object {
+        const val COALESCE_WINDOW_MS = 30L
     }
 
 }
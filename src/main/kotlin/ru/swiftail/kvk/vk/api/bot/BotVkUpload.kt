@@ -1,43 +1,176 @@
 package ru.swiftail.kvk.vk.api.bot
 
+import com.google.gson.JsonParser
 import com.vk.api.sdk.objects.photos.Photo
 import com.vk.api.sdk.objects.photos.responses.PhotoUploadResponse
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.coroutines.withContext
+import ru.swiftail.kvk.tracing.traced
 import ru.swiftail.kvk.vk.api.VkContext
 import ru.swiftail.kvk.vk.api.file.FileProvider
-import ru.swiftail.kvk.vk.lowlevel.runAsync
+import ru.swiftail.kvk.vk.api.file.MediaStream
+import ru.swiftail.kvk.vk.api.media.ContentHashing
+import ru.swiftail.kvk.vk.api.media.MediaServices
+import ru.swiftail.kvk.vk.api.media.PhotoUploadBatch
+import ru.swiftail.kvk.vk.api.media.PhotoUploadFailure
+import ru.swiftail.kvk.vk.api.media.UploadRejectedException
+import ru.swiftail.kvk.vk.api.media.UploadServerPool
+import ru.swiftail.kvk.vk.lowlevel.MultipartUpload
+import ru.swiftail.kvk.vk.lowlevel.await
+import ru.swiftail.kvk.vk.lowlevel.scheduler.ApiPriority
+import java.net.URI
 
-class BotVkUpload(private val vkContext: VkContext) {
+class BotVkUpload(
+    private val vkContext: VkContext,
+    private val mediaServices: MediaServices
+) {
 
-    private suspend fun uploadPhoto(photo: FileProvider): PhotoUploadResponse {
+    private val groupId: Int
+        get() = vkContext.actor.groupId
 
-        val photoUploadData = vkContext.llVk
-            .photos()
-            .getMessagesUploadServer(vkContext.actor)
-            .runAsync()
-            .await()
-
-        return photo.use<PhotoUploadResponse> { file ->
-            val req = vkContext.llVk
-                .upload()
-                .photo(photoUploadData.uploadUrl.toExternalForm(), file)
-
-            req
-                .runAsync()
-                .await()
+    private val uploadServers = UploadServerPool(vkContext, mediaServices.configuration.uploadServerTtl)
+
+    private val maxMediaSize = mediaServices.configuration.maxMediaSize
+
+    private suspend fun uploadPhoto(media: MediaStream, retries: Int = 1): PhotoUploadResponse {
+
+        val uploadUrl = uploadServers.get()
+
+        try {
+            // The photo is piped from its source straight into the request body
+            val response = traced("upload") {
+                withContext(Dispatchers.IO) {
+                    MultipartUpload.post(uploadUrl, "photo", media, mediaServices.bufferPool)
+                }
+            }
+            return parseUploadResponse(response)
+        } catch (e: UploadRejectedException) {
+            uploadServers.invalidate(uploadUrl)
+            // Streams that can't be read again fail, the next upload gets a fresh server
+            val reopen = media.reopen?.takeIf { retries > 0 } ?: throw e
+            return reopen().use { uploadPhoto(it, retries - 1) }
         }
     }
 
-    suspend fun uploadMessagesPhoto(photo: FileProvider): MutableList<Photo> {
+    /**
+     * Shrinks the photo if transcoding is enabled, caches still use the hash of the original.
+     * The transcoded copy is closed, removing its temporary files, once [block] returns.
+     */
+    private suspend fun <T> withTranscoded(media: MediaStream, sha256: String?, block: suspend (MediaStream) -> T): T {
+        val transcoder = mediaServices.transcoder ?: return block(media)
+        return traced("transcode") { transcoder.transcode(media, sha256) }.use { block(it) }
+    }
+
+    private fun parseUploadResponse(response: String): PhotoUploadResponse {
+        val json = try {
+            JsonParser().parse(response).asJsonObject
+        } catch (e: Exception) {
+            throw UploadRejectedException("Malformed upload response: $response")
+        }
 
-        val uploadedPhoto = uploadPhoto(photo)
+        val photo = json["photo"]?.takeIf { it.isJsonPrimitive }?.asString
+        if (json.has("error") || photo.isNullOrEmpty() || photo == "[]") {
+            throw UploadRejectedException("Upload server rejected the photo: $response")
+        }
+
+        return vkContext.llVk.gson.fromJson(json, PhotoUploadResponse::class.java)
+    }
 
+    private suspend fun saveMessagesPhoto(uploadedPhoto: PhotoUploadResponse): MutableList<Photo> {
         return vkContext.llVk
             .photos()
             .saveMessagesPhoto(vkContext.actor, uploadedPhoto.photosList)
             .server(uploadedPhoto.server)
             .hash(uploadedPhoto.hash)
-            .runAsync()
-            .await()
+            .await(vkContext.rateLimiter, ApiPriority.UPLOAD)
+    }
+
+    suspend fun uploadMessagesPhoto(photo: FileProvider): MutableList<Photo> {
+        return withContext(Dispatchers.IO) {
+            photo.useStream(maxMediaSize) { media ->
+                saveMessagesPhoto(withTranscoded(media, null) { uploadPhoto(it) })
+            }
+        }
+    }
+
+    /**
+     * Uploads a photo unless the same uri or the same content was already uploaded by this group
+     *
+     * @param uri source of the photo, used as a cache key
+     * @return attachment string of the photo
+     */
+    suspend fun uploadMessagesPhotoAttachment(photo: FileProvider, uri: URI? = null): String {
+        val cache = mediaServices.photoCache
+
+        uri?.let { cache.getByUri(groupId, it) }?.let { return it }
+
+        return traced("photo_upload") {
+            withContext(Dispatchers.IO) { uploadPhotoAttachment(photo, uri) }
+        }
+    }
+
+    private suspend fun uploadPhotoAttachment(photo: FileProvider, uri: URI?): String {
+        val cache = mediaServices.photoCache
+
+        return photo.useStream(maxMediaSize) { source ->
+            val hashed = ContentHashing.hashIfSmall(source)
+
+            hashed.sha256?.let { cache.getByContent(groupId, it) }?.let { attachment ->
+                cache.put(groupId, uri, null, attachment)
+                return@useStream attachment
+            }
+
+            val uploaded = withTranscoded(hashed.media, hashed.sha256) { uploadPhoto(it) }
+            val attachment = saveMessagesPhoto(uploaded).first().toAttachment()
+            cache.put(groupId, uri, hashed.sha256, attachment)
+            attachment
+        }
+    }
+
+
+    /**
+     * Uploads photos in parallel, at most [concurrency] at a time.
+     * A failed photo doesn't fail the others, it is reported in the batch.
+     */
+    suspend fun uploadMessagesPhotoAttachments(
+        photos: List<Pair<FileProvider, URI?>>,
+        concurrency: Int = DEFAULT_UPLOAD_CONCURRENCY
+    ): PhotoUploadBatch = coroutineScope {
+
+        val permits = Semaphore(concurrency)
+
+        val results = photos.map { (photo, uri) ->
+            async {
+                permits.withPermit {
+                    try {
+                        uploadMessagesPhotoAttachment(photo, uri)
+                    } catch (e: CancellationException) {
+                        throw e
+                    } catch (e: Exception) {
+                        e
+                    }
+                }
+            }
+        }.awaitAll()
+
+        PhotoUploadBatch(
+            attachments = results.filterIsInstance<String>(),
+            failures = results.mapIndexedNotNull { index, result ->
+                (result as? Exception)?.let { PhotoUploadFailure(index, photos[index].second, it) }
+            }
+        )
+    }
+
+    companion object {
+        const val DEFAULT_UPLOAD_CONCURRENCY = 4
     }
 
 }
+
+fun Photo.toAttachment() = "photo${ownerId}_${id}"
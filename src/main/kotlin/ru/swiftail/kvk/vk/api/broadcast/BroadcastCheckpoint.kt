@@ -0,0 +1,65 @@
+package ru.swiftail.kvk.vk.api.broadcast
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+
+/**
+ * Where a broadcast stopped
+ *
+ * @param done number of recipients the broadcast has already been sent to
+ * @param batchSize size of its batches, they must stay the same to keep the `random_id` of every batch
+ */
+class BroadcastPosition(val done: Long, val batchSize: Int)
+
+/**
+ * Progress of broadcasts, so a restarted broadcast continues where it stopped
+ */
+interface BroadcastCheckpoint {
+
+    fun save(broadcastId: String, position: BroadcastPosition)
+
+    /**
+     * @return null for a new broadcast
+     */
+    fun load(broadcastId: String): BroadcastPosition?
+
+    companion object {
+        val NONE = object : BroadcastCheckpoint {
+            override fun save(broadcastId: String, position: BroadcastPosition) {}
+            override fun load(broadcastId: String): BroadcastPosition? = null
+        }
+    }
+}
+
+class FileBroadcastCheckpoint(private val directory: Path) : BroadcastCheckpoint {
+
+    private fun fileOf(broadcastId: String): Path {
+        require(broadcastId.matches(SAFE_ID)) { "Broadcast id must be a valid file name: $broadcastId" }
+        return directory.resolve("broadcast-$broadcastId")
+    }
+
+    override fun save(broadcastId: String, position: BroadcastPosition) {
+        Files.createDirectories(directory)
+        val target = fileOf(broadcastId)
+        val temp = Files.createTempFile(directory, "broadcast-$broadcastId", ".tmp")
+        Files.write(temp, "${position.done} ${position.batchSize}".toByteArray())
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+    }
+
+    override fun load(broadcastId: String): BroadcastPosition? {
+        val file = fileOf(broadcastId)
+        if (!Files.exists(file)) return null
+
+        val words = String(Files.readAllBytes(file)).trim().split(' ')
+        val done = words[0].toLongOrNull()
+        val batchSize = words.getOrNull(1)?.toIntOrNull()
+        require(done != null && batchSize != null) { "Malformed broadcast checkpoint $file" }
+        return BroadcastPosition(done, batchSize)
+    }
+
+    companion object {
+        private val SAFE_ID = Regex("[A-Za-z0-9_.-]+")
+    }
+
+}
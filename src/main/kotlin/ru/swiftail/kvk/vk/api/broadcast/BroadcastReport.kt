@@ -0,0 +1,34 @@
+package ru.swiftail.kvk.vk.api.broadcast
+
+class BroadcastFailure(
+    val peerId: Int,
+    /**
+     * VK error code, null if the whole request failed
+     */
+    val code: Int?,
+    val reason: String
+)
+
+/**
+ * Result of one run of a broadcast
+ *
+ * @param skipped recipients done by previous runs
+ */
+class BroadcastReport(
+    val broadcastId: String,
+    val skipped: Long,
+    val recipients: Long,
+    val sent: Long,
+    val failures: List<BroadcastFailure>,
+    val elapsedMillis: Long
+) {
+
+    val recipientsPerSecond: Double
+        get() = if (elapsedMillis == 0L) 0.0 else recipients * 1000.0 / elapsedMillis
+
+    override fun toString(): String {
+        return "BroadcastReport(id=$broadcastId, skipped=$skipped, recipients=$recipients, sent=$sent, " +
+                "failed=${failures.size}, elapsed=${elapsedMillis}ms, " +
+                "throughput=${"%.1f".format(recipientsPerSecond)}/s)"
+    }
+}
@@ -0,0 +1,255 @@
+package ru.swiftail.kvk.vk.api.broadcast
+
+import com.google.common.hash.Hashing
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import mu.KotlinLogging
+import ru.swiftail.kvk.metrics.PipelineMetrics
+import ru.swiftail.kvk.vk.api.bot.BotVk
+import ru.swiftail.kvk.vk.api.message.MessageQueryBuilder
+import ru.swiftail.kvk.vk.lowlevel.awaitString
+import ru.swiftail.kvk.vk.lowlevel.scheduler.ApiPriority
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.TreeMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicLong
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Sends one message to many recipients, up to [MAX_BATCH_SIZE] peers per `messages.send` call.
+ *
+ * Calls run with [ApiPriority.BACKGROUND] within the group's rate limit, so replies to users go first.
+ * Progress is saved after every batch. A batch is sent with the same `random_id` after a restart,
+ * VK drops it for the peers that already got it.
+ *
+ * Batches rejected by VK count as done. Transient errors, like flood control, are retried with a backoff.
+ * Batches that failed in transport, kept failing transiently or were cancelled are not saved,
+ * a resumed broadcast sends them again.
+ */
+class Broadcaster(private val botVk: BotVk) {
+
+    /**
+     * Sends the message to the peer ids listed in a file, one per line
+     */
+    suspend fun broadcast(
+        broadcastId: String,
+        recipients: Path,
+        checkpoint: BroadcastCheckpoint = BroadcastCheckpoint.NONE,
+        batchSize: Int = MAX_BATCH_SIZE,
+        concurrency: Int = DEFAULT_CONCURRENCY,
+        message: suspend MessageQueryBuilder.() -> Unit
+    ): BroadcastReport {
+        return Files.newBufferedReader(recipients, StandardCharsets.UTF_8).useLines { lines ->
+            val peerIds = lines.mapNotNull { it.trim().toIntOrNull() }.iterator()
+            broadcast(broadcastId, peerIds, checkpoint, batchSize, concurrency, message)
+        }
+    }
+
+    /**
+     * Sends the message to every peer of [recipients].
+     * A resumed broadcast must get the recipients in the same order.
+     *
+     * @param message builds the message once, uploads are not repeated per batch
+     */
+    suspend fun broadcast(
+        broadcastId: String,
+        recipients: Iterator<Int>,
+        checkpoint: BroadcastCheckpoint = BroadcastCheckpoint.NONE,
+        batchSize: Int = MAX_BATCH_SIZE,
+        concurrency: Int = DEFAULT_CONCURRENCY,
+        message: suspend MessageQueryBuilder.() -> Unit
+    ): BroadcastReport {
+        require(batchSize in 1..MAX_BATCH_SIZE) { "Batch size must be within 1..$MAX_BATCH_SIZE" }
+
+        val template = MessageQueryBuilder(botVk).apply { message() }
+
+        val saved = checkpoint.load(broadcastId)
+        // Batches of another size get other random_ids, VK would deliver them again
+        require(saved == null || saved.batchSize == batchSize) {
+            "Broadcast $broadcastId was started with batches of ${saved?.batchSize}, resume it with the same size"
+        }
+        val skipped = saved?.done ?: 0L
+
+        var position = 0L
+        while (position < skipped && recipients.hasNext()) {
+            recipients.next()
+            position++
+        }
+        if (skipped > 0) logger.info { "Resuming broadcast $broadcastId after $skipped recipients" }
+
+        val progress = Progress(broadcastId, checkpoint, batchSize, skipped)
+        val permits = Semaphore(concurrency)
+        val failures = ConcurrentLinkedQueue<BroadcastFailure>()
+        val sent = AtomicLong()
+        val startedAt = System.currentTimeMillis()
+
+        // Saved progress always ends on a batch boundary, batch numbers stay the same after a restart
+        var batchIndex = skipped / batchSize
+
+        coroutineScope {
+            while (recipients.hasNext()) {
+                val batch = ArrayList<Int>(batchSize)
+                while (batch.size < batchSize && recipients.hasNext()) batch += recipients.next()
+
+                val start = position
+                val index = batchIndex++
+                position += batch.size
+
+                permits.acquire()
+                launch {
+                    val delivered = try {
+                        sendBatch(template, broadcastId, index, batch, sent, failures)
+                    } finally {
+                        permits.release()
+                    }
+                    if (delivered) progress.done(start, batch.size)
+                    if (index % PROGRESS_LOG_BATCHES == 0L) {
+                        logger.info { "Broadcast $broadcastId: ${progress.done} recipients done, ${failures.size} failed" }
+                    }
+                }
+            }
+        }
+
+        val report = BroadcastReport(
+            broadcastId,
+            skipped,
+            position - skipped,
+            sent.get(),
+            failures.toList(),
+            System.currentTimeMillis() - startedAt
+        )
+        logger.info { "Broadcast finished: $report" }
+        return report
+    }
+
+    /**
+     * @return false if the batch may not have reached VK and has to be sent again on resume
+     */
+    private suspend fun sendBatch(
+        template: MessageQueryBuilder,
+        broadcastId: String,
+        index: Long,
+        batch: List<Int>,
+        sent: AtomicLong,
+        failures: ConcurrentLinkedQueue<BroadcastFailure>
+    ): Boolean {
+        val query = template.build()
+            .unsafeParam("peer_ids", batch.joinToString(","))
+            .unsafeParam("random_id", randomIdOf(broadcastId, index))
+
+        var attempt = 0
+        while (true) {
+            PipelineMetrics.repliesSent.increment()
+            val response = try {
+                JsonParser().parse(
+                    query.awaitString(botVk.vkContext.rateLimiter, ApiPriority.BACKGROUND)
+                ).asJsonObject
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                logger.warn(e) { "Broadcast $broadcastId: batch $index failed" }
+                batch.forEach { failures += BroadcastFailure(it, null, e.message ?: e.toString()) }
+                return false
+            }
+
+            val error = response.getAsJsonObject("error")
+            if (error == null) {
+                countResults(response, sent, failures)
+                return true
+            }
+
+            val code = error["error_code"]?.asInt
+            val transient = code in TRANSIENT_ERRORS
+            if (transient && ++attempt < MAX_ATTEMPTS) {
+                logger.info { "Broadcast $broadcastId: batch $index got error $code, retrying" }
+                delay(RETRY_DELAY_MILLIS shl (attempt - 1))
+                continue
+            }
+
+            val reason = error["error_msg"]?.asString ?: error.toString()
+            batch.forEach { failures += BroadcastFailure(it, code, reason) }
+            return !transient
+        }
+    }
+
+    private fun countResults(
+        response: JsonObject,
+        sent: AtomicLong,
+        failures: ConcurrentLinkedQueue<BroadcastFailure>
+    ) {
+        // One entry per peer, either with message_id or with an error
+        response.getAsJsonArray("response")?.forEach { element ->
+            val result = element.asJsonObject
+            val error = result["error"]?.takeIf { it.isJsonObject }?.asJsonObject
+            if (error == null) {
+                sent.incrementAndGet()
+            } else {
+                failures += BroadcastFailure(
+                    result["peer_id"].asInt,
+                    error["code"]?.asInt,
+                    error["description"]?.asString ?: error.toString()
+                )
+            }
+        }
+    }
+
+    private fun randomIdOf(broadcastId: String, index: Long): Int {
+        return Hashing.murmur3_32().hashString("$broadcastId:$index", StandardCharsets.UTF_8).asInt() and Int.MAX_VALUE
+    }
+
+    /**
+     * Saves how many recipients are done, counting only batches without gaps before them
+     */
+    private class Progress(
+        private val broadcastId: String,
+        private val checkpoint: BroadcastCheckpoint,
+        private val batchSize: Int,
+        initial: Long
+    ) {
+        private val completed = TreeMap<Long, Int>()
+
+        @Volatile
+        var done = initial
+            private set
+
+        @Synchronized
+        fun done(start: Long, size: Int) {
+            completed[start] = size
+            var advanced = false
+            while (true) {
+                val next = completed.remove(done) ?: break
+                done += next
+                advanced = true
+            }
+            if (advanced) checkpoint.save(broadcastId, BroadcastPosition(done, batchSize))
+        }
+    }
+
+    companion object {
+        /**
+         * VK limit of peer_ids per messages.send
+         */
+        const val MAX_BATCH_SIZE = 100
+
+        const val DEFAULT_CONCURRENCY = 2
+
+        private const val PROGRESS_LOG_BATCHES = 50L
+
+        /**
+         * Too many requests per second, flood control and internal server error
+         */
+        private val TRANSIENT_ERRORS = setOf(6, 9, 10)
+
+        private const val MAX_ATTEMPTS = 4
+        private const val RETRY_DELAY_MILLIS = 1000L
+    }
+
+}
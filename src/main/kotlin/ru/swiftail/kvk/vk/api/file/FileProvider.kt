@@ -1,5 +1,6 @@
 package ru.swiftail.kvk.vk.api.file
 
+import ru.swiftail.kvk.vk.api.media.MediaTooLargeException
 import java.io.File
 
 abstract class FileProvider {
@@ -7,6 +8,15 @@ abstract class FileProvider {
     protected abstract fun getFile(): File
     protected abstract fun close(): Unit
 
+    /**
+     * Opens the content for streaming.
+     * By default goes through [getFile], providers that can stream should override it.
+     */
+    protected open suspend fun openStream(): MediaStream {
+        val file = getFile()
+        return MediaStream.ofFile(file.toPath(), file.name)
+    }
+
     private var closed = false
     fun assertOk() = assert(!closed) { "Attempt to use closed file provider" }
 
@@ -15,11 +25,33 @@ abstract class FileProvider {
         assertOk()
 
         val file = `access$getFile`()
-        val result = block(file)
+        try {
+            return block(file)
+        } finally {
+            `access$close`()
+        }
+    }
+
+    /**
+     * Streams the content to [block]. Content of unknown length
+     * is spooled into a temporary file first.
+     *
+     * @throws MediaTooLargeException if the content is larger than [maxSize]
+     */
+    suspend inline fun <T> useStream(maxSize: Long = Long.MAX_VALUE, block: (MediaStream) -> T): T {
 
-        `access$close`()
+        assertOk()
 
-        return result
+        try {
+            val media = `access$openStream`()
+            if (media.length > maxSize) {
+                media.close()
+                throw MediaTooLargeException(maxSize)
+            }
+            return media.withKnownLength(maxSize).use(block)
+        } finally {
+            `access$close`()
+        }
     }
 
     fun get() {
@@ -30,6 +62,12 @@ abstract class FileProvider {
     internal fun `access$getFile`() = getFile()
 
     @PublishedApi
-    internal fun `access$close`() = close()
+    internal suspend fun `access$openStream`() = openStream()
+
+    @PublishedApi
+    internal fun `access$close`() {
+        closed = true
+        close()
+    }
 
 }
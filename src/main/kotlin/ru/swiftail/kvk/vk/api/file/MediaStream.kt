@@ -0,0 +1,79 @@
+package ru.swiftail.kvk.vk.api.file
+
+import ru.swiftail.kvk.vk.api.media.MediaTooLargeException
+import java.io.Closeable
+import java.io.FileInputStream
+import java.io.InputStream
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+
+/**
+ * Content of a media file being uploaded.
+ *
+ * @param length size in bytes, or -1 if unknown
+ * @param fileName name reported to the upload server, VK looks at its extension
+ * @param reopen reads the same content again, if it is still available
+ */
+class MediaStream(
+    val input: InputStream,
+    val length: Long,
+    val fileName: String,
+    val reopen: (() -> MediaStream)? = null,
+    private val onClose: () -> Unit = {}
+) : Closeable {
+
+    val isLengthKnown: Boolean
+        get() = length >= 0
+
+    /**
+     * Returns this stream if its length is known, otherwise spools the content
+     * into a temporary file which is deleted when the returned stream is closed
+     *
+     * @throws MediaTooLargeException as soon as more than [maxSize] bytes are read
+     */
+    fun withKnownLength(maxSize: Long = Long.MAX_VALUE): MediaStream {
+        if (isLengthKnown) return this
+
+        val location = Files.createTempFile("vkbot_upload_", "_$fileName")
+        try {
+            val size = input.use { input ->
+                FileChannel.open(location, StandardOpenOption.WRITE).use { file ->
+                    // Asking for one byte more than allowed tells an oversized source apart
+                    file.transferFrom(Channels.newChannel(input), 0, maxSize.coerceAtMost(Long.MAX_VALUE - 1) + 1)
+                }
+            }
+            if (size > maxSize) throw MediaTooLargeException(maxSize)
+
+            return ofFile(location, fileName) {
+                Files.deleteIfExists(location)
+            }
+        } catch (e: Throwable) {
+            Files.deleteIfExists(location)
+            throw e
+        }
+    }
+
+    override fun close() {
+        try {
+            input.close()
+        } finally {
+            onClose()
+        }
+    }
+
+    companion object {
+        fun ofFile(path: Path, fileName: String, onClose: () -> Unit = {}): MediaStream {
+            return MediaStream(
+                FileInputStream(path.toFile()),
+                Files.size(path),
+                fileName,
+                reopen = { ofFile(path, fileName) },
+                onClose = onClose
+            )
+        }
+    }
+
+}
@@ -1,30 +1,44 @@
 package ru.swiftail.kvk.vk.api.file
 
-import java.io.BufferedInputStream
+import ru.swiftail.kvk.vk.api.media.MediaDownloader
 import java.io.File
 import java.net.URI
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
 import java.nio.file.Files
 import java.nio.file.Path
-import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
 
 class WebFileProvider(
     private val uri: URI,
-    private val extensionResolverStrategy: ExtensionResolverStrategy
+    private val extensionResolverStrategy: ExtensionResolverStrategy,
+    private val downloader: MediaDownloader = MediaDownloader.DEFAULT
 ) : FileProvider() {
 
     private lateinit var location: Path
 
+    private val fileName: String
+        get() = "upload" + extensionResolverStrategy.resolve(uri)
+
     override fun getFile(): File {
-        val inputStream = BufferedInputStream(uri.toURL().openStream())
         location = Files.createTempFile("vkbot_upload_", extensionResolverStrategy.resolve(uri))
         // println(location)
-        Files.copy(inputStream, location, StandardCopyOption.REPLACE_EXISTING)
+        downloader.openBlocking(uri, fileName).use { media ->
+            FileChannel.open(location, StandardOpenOption.WRITE).use { file ->
+                file.transferFrom(Channels.newChannel(media.input), 0, Long.MAX_VALUE)
+            }
+        }
         return location.toFile()
     }
 
+    override suspend fun openStream(): MediaStream {
+        return downloader.open(uri, fileName)
+    }
+
     override fun close() {
-        Files.delete(location)
+        if (::location.isInitialized) {
+            Files.deleteIfExists(location)
+        }
     }
 
 }
-
@@ -0,0 +1,47 @@
+package ru.swiftail.kvk.vk.api.media
+
+import com.google.common.hash.Hashing
+import com.google.common.io.ByteStreams
+import ru.swiftail.kvk.vk.api.file.MediaStream
+import java.io.ByteArrayInputStream
+
+class HashedMedia(
+    val media: MediaStream,
+    /**
+     * SHA-256 of the content, null if it was too large to be hashed up front
+     */
+    val sha256: String?
+)
+
+object ContentHashing {
+
+    /**
+     * Content up to this size is read into memory and hashed before uploading
+     */
+    const val MAX_HASHED_SIZE = 4L * 1024 * 1024
+
+    /**
+     * Reads small media into memory to hash it, larger media is passed through untouched
+     */
+    fun hashIfSmall(media: MediaStream, limit: Long = MAX_HASHED_SIZE): HashedMedia {
+        if (!media.isLengthKnown || media.length > limit) {
+            return HashedMedia(media, null)
+        }
+
+        val bytes = ByteArray(media.length.toInt())
+        ByteStreams.readFully(media.input, bytes)
+
+        val sha256 = Hashing.sha256().hashBytes(bytes).toString()
+        return HashedMedia(inMemory(bytes, media.fileName), sha256)
+    }
+
+    private fun inMemory(bytes: ByteArray, fileName: String): MediaStream {
+        return MediaStream(
+            ByteArrayInputStream(bytes),
+            bytes.size.toLong(),
+            fileName,
+            reopen = { inMemory(bytes, fileName) }
+        )
+    }
+
+}
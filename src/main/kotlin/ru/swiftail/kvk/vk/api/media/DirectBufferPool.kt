@@ -0,0 +1,88 @@
+package ru.swiftail.kvk.vk.api.media
+
+import java.nio.ByteBuffer
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+class BufferPoolStats(
+    val bufferSize: Int,
+    val maxBuffers: Int,
+    val allocated: Int,
+    val inUse: Int,
+    val acquisitions: Long,
+    val waits: Long
+) {
+
+    val allocatedBytes: Long
+        get() = allocated.toLong() * bufferSize
+
+    override fun toString(): String {
+        return "BufferPoolStats(bufferSize=$bufferSize, allocated=$allocated/$maxBuffers, inUse=$inUse, " +
+                "acquisitions=$acquisitions, waits=$waits)"
+    }
+}
+
+/**
+ * Fixed-size direct buffers for media I/O.
+ *
+ * At most [maxBuffers] are ever allocated, so memory used by concurrent
+ * transfers is bounded by `bufferSize * maxBuffers`. When all of them are
+ * in use, callers wait for one to be released.
+ */
+class DirectBufferPool(
+    val bufferSize: Int,
+    val maxBuffers: Int
+) {
+
+    private val free = ArrayBlockingQueue<ByteBuffer>(maxBuffers)
+    private val allocated = AtomicInteger()
+    private val inUse = AtomicInteger()
+    private val acquisitions = AtomicLong()
+    private val waits = AtomicLong()
+
+    fun acquire(): ByteBuffer {
+        acquisitions.incrementAndGet()
+        val buffer = free.poll() ?: allocate() ?: run {
+            waits.incrementAndGet()
+            free.take()
+        }
+        inUse.incrementAndGet()
+        buffer.clear()
+        return buffer
+    }
+
+    fun release(buffer: ByteBuffer) {
+        inUse.decrementAndGet()
+        free.offer(buffer)
+    }
+
+    inline fun <T> use(block: (ByteBuffer) -> T): T {
+        val buffer = acquire()
+        try {
+            return block(buffer)
+        } finally {
+            release(buffer)
+        }
+    }
+
+    private fun allocate(): ByteBuffer? {
+        while (true) {
+            val current = allocated.get()
+            if (current >= maxBuffers) return null
+            if (allocated.compareAndSet(current, current + 1)) {
+                return ByteBuffer.allocateDirect(bufferSize)
+            }
+        }
+    }
+
+    fun stats() = BufferPoolStats(
+        bufferSize,
+        maxBuffers,
+        allocated.get(),
+        inUse.get(),
+        acquisitions.get(),
+        waits.get()
+    )
+
+}
@@ -0,0 +1,209 @@
+package ru.swiftail.kvk.vk.api.media
+
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
+import com.google.common.hash.Hashing
+import com.google.common.hash.HashingInputStream
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.withContext
+import mu.KotlinLogging
+import ru.swiftail.kvk.vk.api.file.MediaStream
+import java.awt.Color
+import java.awt.RenderingHints
+import java.awt.image.BufferedImage
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.util.concurrent.Executors
+import javax.imageio.IIOImage
+import javax.imageio.ImageIO
+import javax.imageio.ImageWriteParam
+import javax.imageio.stream.FileImageInputStream
+import javax.imageio.stream.ImageInputStream
+import javax.imageio.stream.MemoryCacheImageInputStream
+import javax.imageio.stream.MemoryCacheImageOutputStream
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Optionally downscales photos to the largest size VK keeps and re-encodes them as JPEG
+ * before they are uploaded.
+ *
+ * Sources are spooled to a temporary file rather than read onto the heap, and oversized photos
+ * are subsampled while decoding. Work runs on its own bounded pool, results are cached by SHA-256
+ * of the source. Images ImageIO can't decode are passed through untouched.
+ */
+class ImageTranscoder(
+    private val maxDimension: Int,
+    private val quality: Float,
+    threads: Int,
+    cacheSize: Long
+) {
+
+    private val dispatcher = Executors.newFixedThreadPool(
+        threads,
+        ThreadFactoryBuilder().setNameFormat("transcode-%d").setDaemon(true).build()
+    ).asCoroutineDispatcher()
+
+    /**
+     * Transcoded photos, an empty array marks a source that is uploaded as is
+     */
+    private val cache: Cache<String, ByteArray> = CacheBuilder.newBuilder()
+        .maximumWeight(cacheSize)
+        .weigher<String, ByteArray> { _, content -> maxOf(content.size, MIN_ENTRY_WEIGHT) }
+        .build()
+
+    /**
+     * Transcodes [media], spooling it to a temporary file that is deleted when the result is closed
+     *
+     * @param sha256 hash of the content if it is already known
+     * @return [media] itself is never returned, close the result rather than [media]
+     */
+    suspend fun transcode(media: MediaStream, sha256: String? = null): MediaStream = withContext(dispatcher) {
+        val spool = Files.createTempFile("vkbot_transcode_", ".src")
+        try {
+            val hashing = if (sha256 == null) HashingInputStream(Hashing.sha256(), media.input) else null
+            Files.copy(hashing ?: media.input, spool, StandardCopyOption.REPLACE_EXISTING)
+            val key = sha256 ?: hashing!!.hash().toString()
+            val size = Files.size(spool)
+
+            val output = cache.getIfPresent(key) ?: FileImageInputStream(spool.toFile()).use {
+                (transcodeImage(it, size) ?: PASSTHROUGH).also { result -> cache.put(key, result) }
+            }
+
+            if (output.isEmpty()) {
+                MediaStream.ofFile(spool, media.fileName) { Files.deleteIfExists(spool) }
+            } else {
+                Files.deleteIfExists(spool)
+                inMemory(output, media.fileName.substringBeforeLast(".") + ".jpg")
+            }
+        } catch (e: Throwable) {
+            Files.deleteIfExists(spool)
+            throw e
+        }
+    }
+
+    /**
+     * Blocking variant, returns [source] itself when it doesn't need transcoding
+     */
+    fun transcode(source: ByteArray, sha256: String? = null): ByteArray {
+        val key = sha256 ?: Hashing.sha256().hashBytes(source).toString()
+        val output = cache.getIfPresent(key) ?: MemoryCacheImageInputStream(ByteArrayInputStream(source)).use {
+            (transcodeImage(it, source.size.toLong()) ?: PASSTHROUGH).also { result -> cache.put(key, result) }
+        }
+        return if (output.isEmpty()) source else output
+    }
+
+    /**
+     * @return the JPEG to upload instead of the source, or null to upload the source as is
+     */
+    private fun transcodeImage(input: ImageInputStream, sourceSize: Long): ByteArray? {
+        val readers = ImageIO.getImageReaders(input)
+        if (!readers.hasNext()) return null
+
+        val reader = readers.next()
+        try {
+            reader.setInput(input, true, true)
+            // Only the header is read to get the dimensions
+            val width = reader.getWidth(0)
+            val height = reader.getHeight(0)
+
+            val needsDownscale = width > maxDimension || height > maxDimension
+            if (!needsDownscale && sourceSize <= PASSTHROUGH_SIZE) {
+                return null
+            }
+
+            // Huge photos are subsampled while decoding, their full raster is never held in memory
+            val param = reader.defaultReadParam
+            val step = maxOf(width, height) / (maxDimension * 2)
+            if (step > 1) param.setSourceSubsampling(step, step, 0, 0)
+            val image = reader.read(0, param)
+
+            val downscaled = image.width > maxDimension || image.height > maxDimension
+            val output = encodeJpeg(if (downscaled) downscale(image) else image)
+            // Re-encoding a small, already compressed image may make it larger
+            return output.takeIf { it.size < sourceSize }
+        } catch (e: Exception) {
+            logger.debug { "Failed to decode image, uploading as is: $e" }
+            return null
+        } finally {
+            reader.dispose()
+        }
+    }
+
+    private fun downscale(image: BufferedImage): BufferedImage {
+        val scale = maxDimension.toDouble() / maxOf(image.width, image.height)
+
+        var current = image
+        var width = image.width
+        var height = image.height
+        val targetWidth = maxOf(1, (image.width * scale).toInt())
+        val targetHeight = maxOf(1, (image.height * scale).toInt())
+
+        // Halving step by step keeps bilinear scaling from aliasing
+        do {
+            width = maxOf(targetWidth, width / 2)
+            height = maxOf(targetHeight, height / 2)
+            current = draw(current, width, height)
+        } while (width != targetWidth || height != targetHeight)
+
+        return current
+    }
+
+    private fun draw(image: BufferedImage, width: Int, height: Int): BufferedImage {
+        val result = BufferedImage(width, height, BufferedImage.TYPE_INT_RGB)
+        val graphics = result.createGraphics()
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR)
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY)
+            // JPEG has no alpha, transparent areas become white
+            graphics.drawImage(image, 0, 0, width, height, Color.WHITE, null)
+        } finally {
+            graphics.dispose()
+        }
+        return result
+    }
+
+    private fun encodeJpeg(image: BufferedImage): ByteArray {
+        val rgb = if (image.type == BufferedImage.TYPE_INT_RGB) image else draw(image, image.width, image.height)
+
+        val writer = ImageIO.getImageWritersByFormatName("jpeg").next()
+        val output = ByteArrayOutputStream()
+        try {
+            MemoryCacheImageOutputStream(output).use { stream ->
+                writer.output = stream
+                val param = writer.defaultWriteParam
+                param.compressionMode = ImageWriteParam.MODE_EXPLICIT
+                param.compressionQuality = quality
+                writer.write(null, IIOImage(rgb, null, null), param)
+            }
+        } finally {
+            writer.dispose()
+        }
+        return output.toByteArray()
+    }
+
+    private fun inMemory(content: ByteArray, fileName: String): MediaStream {
+        return MediaStream(
+            ByteArrayInputStream(content),
+            content.size.toLong(),
+            fileName,
+            reopen = { inMemory(content, fileName) }
+        )
+    }
+
+    companion object {
+        // Photos VK stores are at most 2560 px on the longest side
+        const val VK_MAX_DIMENSION = 2560
+
+        // Images this small and within the dimension limit are not worth re-encoding
+        private const val PASSTHROUGH_SIZE = 512 * 1024
+
+        private const val MIN_ENTRY_WEIGHT = 64
+
+        private val PASSTHROUGH = ByteArray(0)
+    }
+
+}
@@ -0,0 +1,57 @@
+package ru.swiftail.kvk.vk.api.media
+
+import java.nio.file.Path
+import java.time.Duration
+
+class MediaConfiguration(
+    val photoCacheSize: Long,
+    val photoCacheTtl: Duration,
+    /**
+     * Lifetime of photos cached by source uri, content behind a uri may change
+     */
+    val photoUriCacheTtl: Duration,
+    val photoCacheDirectory: Path?,
+    val uploadServerTtl: Duration,
+    val maxMediaSize: Long,
+    val bufferSize: Int,
+    val maxBuffers: Int,
+    val connectTimeout: Duration,
+    val readTimeout: Duration,
+    val maxRedirects: Int,
+    val downloadCacheSize: Long,
+    /**
+     * Downscale and re-encode photos before uploading them
+     */
+    val transcodeEnabled: Boolean,
+    val transcodeMaxDimension: Int,
+    val transcodeQuality: Float,
+    val transcodeThreads: Int,
+    val transcodeCacheSize: Long
+) {
+
+    companion object {
+        /**
+         * Same values as the environment defaults, for benchmarks and load tests
+         */
+        fun defaults() = MediaConfiguration(
+            photoCacheSize = 10_000,
+            photoCacheTtl = Duration.ofDays(1),
+            photoUriCacheTtl = Duration.ofMinutes(5),
+            photoCacheDirectory = null,
+            uploadServerTtl = Duration.ofMinutes(15),
+            maxMediaSize = 50L * 1024 * 1024,
+            bufferSize = 64 * 1024,
+            maxBuffers = 32,
+            connectTimeout = Duration.ofSeconds(10),
+            readTimeout = Duration.ofSeconds(30),
+            maxRedirects = 5,
+            downloadCacheSize = 32L * 1024 * 1024,
+            transcodeEnabled = false,
+            transcodeMaxDimension = ImageTranscoder.VK_MAX_DIMENSION,
+            transcodeQuality = 0.85f,
+            transcodeThreads = 2,
+            transcodeCacheSize = 64L * 1024 * 1024
+        )
+    }
+
+}
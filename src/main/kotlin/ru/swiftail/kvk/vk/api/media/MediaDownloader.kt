@@ -0,0 +1,134 @@
+package ru.swiftail.kvk.vk.api.media
+
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
+import com.google.common.io.ByteStreams
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import ru.swiftail.kvk.vk.api.file.MediaStream
+import java.io.ByteArrayInputStream
+import java.io.IOException
+import java.net.HttpURLConnection
+import java.net.URI
+import java.net.URL
+import java.time.Duration
+
+/**
+ * Downloads media with timeouts, a redirect limit and a size limit.
+ *
+ * Small responses carrying an ETag or Last-Modified are kept in memory,
+ * and are revalidated with a conditional request when fetched again.
+ */
+class MediaDownloader(
+    private val connectTimeout: Duration,
+    private val readTimeout: Duration,
+    private val maxRedirects: Int,
+    private val maxSize: Long,
+    cacheSize: Long
+) {
+
+    private class CachedResponse(
+        val etag: String?,
+        val lastModified: String?,
+        val content: ByteArray
+    )
+
+    private val cache: Cache<String, CachedResponse> = CacheBuilder.newBuilder()
+        .maximumWeight(cacheSize)
+        .weigher<String, CachedResponse> { _, response -> response.content.size }
+        .build()
+
+    /**
+     * Opens [uri] on the IO dispatcher, the caller's thread is not blocked
+     */
+    suspend fun open(uri: URI, fileName: String): MediaStream = withContext(Dispatchers.IO) {
+        openBlocking(uri, fileName)
+    }
+
+    @Throws(IOException::class)
+    fun openBlocking(uri: URI, fileName: String): MediaStream {
+        val key = uri.toString()
+        val cached = cache.getIfPresent(key)
+
+        var url = uri.toURL()
+        var redirects = 0
+
+        while (true) {
+            val connection = url.openConnection() as HttpURLConnection
+            connection.connectTimeout = connectTimeout.toMillis().toInt()
+            connection.readTimeout = readTimeout.toMillis().toInt()
+            connection.instanceFollowRedirects = false
+            cached?.etag?.let { connection.setRequestProperty("If-None-Match", it) }
+            cached?.lastModified?.let { connection.setRequestProperty("If-Modified-Since", it) }
+
+            when (val code = connection.responseCode) {
+                in 200..299 -> return respond(key, connection, fileName)
+
+                HttpURLConnection.HTTP_NOT_MODIFIED -> {
+                    connection.disconnect()
+                    return inMemory(cached?.content ?: throw IOException("Unexpected 304 for $uri"), fileName)
+                }
+
+                301, 302, 303, 307, 308 -> {
+                    val location = connection.getHeaderField("Location")
+                    connection.disconnect()
+                    if (location == null || ++redirects > maxRedirects) {
+                        throw IOException("Too many redirects while downloading $uri")
+                    }
+                    url = URL(url, location)
+                }
+
+                else -> {
+                    connection.disconnect()
+                    throw IOException("Download of $uri failed with HTTP $code")
+                }
+            }
+        }
+    }
+
+    private fun respond(key: String, connection: HttpURLConnection, fileName: String): MediaStream {
+        val length = connection.contentLengthLong
+        if (length > maxSize) {
+            connection.disconnect()
+            throw MediaTooLargeException(maxSize)
+        }
+
+        val etag = connection.getHeaderField("ETag")
+        val lastModified = connection.getHeaderField("Last-Modified")
+
+        // Only small responses with validators are worth keeping
+        if ((etag != null || lastModified != null) && length in 0..MAX_CACHED_SIZE) {
+            val content = ByteArray(length.toInt())
+            connection.inputStream.use { ByteStreams.readFully(it, content) }
+            cache.put(key, CachedResponse(etag, lastModified, content))
+            return inMemory(content, fileName)
+        }
+
+        return MediaStream(connection.inputStream, length, fileName, onClose = connection::disconnect)
+    }
+
+    private fun inMemory(content: ByteArray, fileName: String): MediaStream {
+        return MediaStream(
+            ByteArrayInputStream(content),
+            content.size.toLong(),
+            fileName,
+            reopen = { inMemory(content, fileName) }
+        )
+    }
+
+    companion object {
+        private const val MAX_CACHED_SIZE = ContentHashing.MAX_HASHED_SIZE
+
+        /**
+         * Used by file providers created without an explicit downloader
+         */
+        val DEFAULT = MediaDownloader(
+            connectTimeout = Duration.ofSeconds(10),
+            readTimeout = Duration.ofSeconds(30),
+            maxRedirects = 5,
+            maxSize = 50L * 1024 * 1024,
+            cacheSize = 32L * 1024 * 1024
+        )
+    }
+
+}
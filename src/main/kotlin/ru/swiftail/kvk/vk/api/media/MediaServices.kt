@@ -0,0 +1,43 @@
+package ru.swiftail.kvk.vk.api.media
+
+import javax.inject.Singleton
+
+/**
+ * Media components shared by all groups
+ */
+@Singleton
+class MediaServices(val configuration: MediaConfiguration) {
+
+    val photoCache = PhotoAttachmentCache(
+        configuration.photoCacheSize,
+        configuration.photoCacheTtl,
+        configuration.photoUriCacheTtl,
+        configuration.photoCacheDirectory
+    )
+
+    /**
+     * Copy buffers of all media transfers, see [bufferPool] stats for usage
+     */
+    val bufferPool = DirectBufferPool(configuration.bufferSize, configuration.maxBuffers)
+
+    val downloader = MediaDownloader(
+        configuration.connectTimeout,
+        configuration.readTimeout,
+        configuration.maxRedirects,
+        configuration.maxMediaSize,
+        configuration.downloadCacheSize
+    )
+
+    /**
+     * Null when transcoding is disabled
+     */
+    val transcoder = if (configuration.transcodeEnabled) {
+        ImageTranscoder(
+            configuration.transcodeMaxDimension,
+            configuration.transcodeQuality,
+            configuration.transcodeThreads,
+            configuration.transcodeCacheSize
+        )
+    } else null
+
+}
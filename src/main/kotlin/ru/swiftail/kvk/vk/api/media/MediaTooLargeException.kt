@@ -0,0 +1,5 @@
+package ru.swiftail.kvk.vk.api.media
+
+import java.io.IOException
+
+class MediaTooLargeException(val limit: Long) : IOException("Media exceeds the limit of $limit bytes")
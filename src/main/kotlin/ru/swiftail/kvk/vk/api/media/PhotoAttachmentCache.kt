@@ -0,0 +1,99 @@
+package ru.swiftail.kvk.vk.api.media
+
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
+import com.google.common.hash.Hashing
+import mu.KotlinLogging
+import java.io.IOException
+import java.net.URI
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.time.Duration
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Maps photo sources to attachments of already uploaded photos.
+ *
+ * Photos are looked up by source uri and by SHA-256 of their content.
+ * Attachments are scoped to the group that uploaded them.
+ * Entries live in a size-bounded memory tier and, optionally, in a directory.
+ *
+ * The same uri may serve different content over time (charts, avatars),
+ * so uri entries expire after [uriTtl], which should be much shorter than [ttl].
+ */
+class PhotoAttachmentCache(
+    maxEntries: Long,
+    ttl: Duration,
+    uriTtl: Duration,
+    private val directory: Path?
+) {
+
+    private class Tier(maxEntries: Long, val ttl: Duration) {
+        val memory: Cache<String, String> = CacheBuilder.newBuilder()
+            .maximumSize(maxEntries)
+            .expireAfterWrite(ttl)
+            .build()
+    }
+
+    private val byUri = Tier(maxEntries, uriTtl)
+    private val byContent = Tier(maxEntries, ttl)
+
+    private fun uriKey(groupId: Int, uri: URI) = "uri:$groupId:$uri"
+
+    private fun contentKey(groupId: Int, sha256: String) = "sha256:$groupId:$sha256"
+
+    fun getByUri(groupId: Int, uri: URI): String? = get(byUri, uriKey(groupId, uri))
+
+    fun getByContent(groupId: Int, sha256: String): String? = get(byContent, contentKey(groupId, sha256))
+
+    fun put(groupId: Int, uri: URI?, sha256: String?, attachment: String) {
+        uri?.let { put(byUri, uriKey(groupId, it), attachment) }
+        sha256?.let { put(byContent, contentKey(groupId, it), attachment) }
+    }
+
+    private fun get(tier: Tier, key: String): String? {
+        tier.memory.getIfPresent(key)?.let { return it }
+        return loadFromDisk(key, tier.ttl)?.also { tier.memory.put(key, it) }
+    }
+
+    private fun put(tier: Tier, key: String, attachment: String) {
+        tier.memory.put(key, attachment)
+        storeOnDisk(key, attachment)
+    }
+
+    private fun fileOf(key: String): Path? {
+        val name = Hashing.sha256().hashString(key, Charsets.UTF_8).toString()
+        return directory?.resolve(name)
+    }
+
+    private fun loadFromDisk(key: String, ttl: Duration): String? {
+        val file = fileOf(key) ?: return null
+        return try {
+            if (!Files.exists(file)) return null
+            val age = System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis()
+            if (age > ttl.toMillis()) {
+                Files.deleteIfExists(file)
+                return null
+            }
+            String(Files.readAllBytes(file), Charsets.UTF_8)
+        } catch (e: IOException) {
+            logger.warn { "Failed to read photo cache entry $file: $e" }
+            null
+        }
+    }
+
+    private fun storeOnDisk(key: String, attachment: String) {
+        val file = fileOf(key) ?: return
+        try {
+            Files.createDirectories(file.parent)
+            val temp = Files.createTempFile(file.parent, file.fileName.toString(), ".tmp")
+            Files.write(temp, attachment.toByteArray(Charsets.UTF_8))
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        } catch (e: IOException) {
+            logger.warn { "Failed to write photo cache entry $file: $e" }
+        }
+    }
+
+}
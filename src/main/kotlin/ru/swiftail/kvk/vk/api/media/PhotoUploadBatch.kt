@@ -0,0 +1,27 @@
+package ru.swiftail.kvk.vk.api.media
+
+import java.net.URI
+
+class PhotoUploadFailure(
+    /**
+     * Position of the photo in the requested list
+     */
+    val index: Int,
+    val source: URI?,
+    val error: Throwable
+)
+
+/**
+ * Result of uploading several photos at once
+ *
+ * @param attachments uploaded photos, in the requested order
+ */
+class PhotoUploadBatch(
+    val attachments: List<String>,
+    val failures: List<PhotoUploadFailure>
+) {
+
+    val isComplete: Boolean
+        get() = failures.isEmpty()
+
+}
@@ -0,0 +1,8 @@
+package ru.swiftail.kvk.vk.api.media
+
+import java.io.IOException
+
+/**
+ * Upload server refused the file, e.g. because its url has expired
+ */
+class UploadRejectedException(message: String) : IOException(message)
@@ -0,0 +1,60 @@
+package ru.swiftail.kvk.vk.api.media
+
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import mu.KotlinLogging
+import ru.swiftail.kvk.vk.api.VkContext
+import ru.swiftail.kvk.vk.lowlevel.await
+import ru.swiftail.kvk.vk.lowlevel.scheduler.ApiPriority
+import java.time.Duration
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Reuses the messages upload server of a group instead of
+ * calling `photos.getMessagesUploadServer` before every upload
+ */
+class UploadServerPool(
+    private val vkContext: VkContext,
+    private val ttl: Duration
+) {
+
+    private class Entry(val url: String, val expiresAt: Long)
+
+    private val mutex = Mutex()
+
+    @Volatile
+    private var current: Entry? = null
+
+    private fun valid(): Entry? = current?.takeIf { it.expiresAt > System.currentTimeMillis() }
+
+    suspend fun get(): String {
+        valid()?.let { return it.url }
+
+        return mutex.withLock {
+            // Another upload may have refreshed it while we were waiting
+            valid()?.let { return@withLock it.url }
+
+            val url = vkContext.llVk
+                .photos()
+                .getMessagesUploadServer(vkContext.actor)
+                .await(vkContext.rateLimiter, ApiPriority.UPLOAD)
+                .uploadUrl
+                .toExternalForm()
+
+            current = Entry(url, System.currentTimeMillis() + ttl.toMillis())
+            url
+        }
+    }
+
+    /**
+     * Drops the url after the upload server rejected it
+     */
+    fun invalidate(url: String) {
+        if (current?.url == url) {
+            logger.debug { "Upload server of group ${vkContext.actor.groupId} was rejected, refreshing" }
+            current = null
+        }
+    }
+
+}
@@ -1,22 +1,86 @@
 package ru.swiftail.kvk.vk.api.message
 
+import com.google.gson.JsonElement
+import com.google.gson.JsonObject
 import com.vk.api.sdk.objects.messages.Message
+import kotlinx.coroutines.Deferred
+import ru.swiftail.kvk.metrics.Metrics
+import ru.swiftail.kvk.metrics.PipelineMetrics
+import ru.swiftail.kvk.tracing.TraceContext
 import ru.swiftail.kvk.vk.api.bot.BotVk
 
-class MessageContext(
-    private val botVk: BotVk,
-    val messageObject: Message
+/**
+ * Received message.
+ *
+ * [text], [peerId] and [fromId] are read straight from the update,
+ * the rest of the message is decoded on the first access to [messageObject].
+ */
+class MessageContext private constructor(
+    val botVk: BotVk,
+    private val json: JsonObject?,
+    @Volatile private var decoded: Message?,
+    /**
+     * Trace of the update, null unless tracing is enabled
+     */
+    val trace: TraceContext?
 ) {
 
-    val text = messageObject.text
+    /**
+     * @param json the `object` of a `message_new` update
+     */
+    constructor(botVk: BotVk, json: JsonObject, trace: TraceContext? = null) : this(botVk, json, null, trace)
+
+    constructor(botVk: BotVk, messageObject: Message, trace: TraceContext? = null) :
+            this(botVk, null, messageObject, trace)
+
+    val text: String = json?.string("text") ?: decoded?.text.orEmpty()
+
+    // Updates without the field are decoded as a whole, the same as before it was read from json
+    val peerId: Int = json?.int("peer_id") ?: messageObject.peerId ?: missing("peer_id")
 
-    suspend fun reply(text: String) = reply {
-        setText(text)
+    val fromId: Int = json?.int("from_id") ?: messageObject.fromId ?: missing("from_id")
+
+    /**
+     * Whole message, with attachments, forwarded messages and the rest
+     */
+    val messageObject: Message
+        get() = decoded ?: decode().also { decoded = it }
+
+    // Concurrent first accesses may both decode, the results are equal
+    private fun decode(): Message {
+        val start = Metrics.now()
+        val span = trace?.startChild("decode")
+        try {
+            return botVk.vkContext.llVk.gson.fromJson(json, Message::class.java)
+        } finally {
+            span?.end()
+            PipelineMetrics.decodeTime.recordSince(start)
+        }
     }
 
-    suspend fun reply(block: suspend MessageQueryBuilder.() -> Unit) =
-        botVk.messages.send {
-            setPeerId(messageObject.peerId)
+    /**
+     * Text replies sent in a row are joined into one message, see [flushReplies]
+     */
+    suspend fun reply(text: String) = botVk.messages.sendText(peerId, text)
+
+    suspend fun reply(block: suspend MessageQueryBuilder.() -> Unit): Deferred<Int> {
+        // Buffered text goes first to keep the order of replies
+        flushReplies()
+        return botVk.messages.send {
+            setPeerId(peerId)
             block()
         }
+    }
+
+    suspend fun flushReplies() = botVk.messages.flush(peerId)
+
+    private fun missing(field: String): Nothing {
+        throw IllegalArgumentException("Message has no $field: ${json ?: decoded}")
+    }
+
+    private fun JsonObject.primitive(name: String): JsonElement? = get(name)?.takeIf { it.isJsonPrimitive }
+
+    private fun JsonObject.string(name: String): String? = primitive(name)?.asString
+
+    private fun JsonObject.int(name: String): Int? = primitive(name)?.asInt
 }
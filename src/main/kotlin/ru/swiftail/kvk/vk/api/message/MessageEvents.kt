@@ -1,31 +1,24 @@
 package ru.swiftail.kvk.vk.api.message
 
-import com.google.gson.JsonObject
-import com.vk.api.sdk.objects.messages.Message
+import ru.swiftail.kvk.tracing.Tracing
 import ru.swiftail.kvk.vk.api.bot.BotVk
+import ru.swiftail.kvk.vk.lowlevel.EventHandlers
 import ru.swiftail.kvk.vk.lowlevel.JsonListener
-import ru.swiftail.kvk.vk.lowlevel.LongPollingListener
-import javax.inject.Singleton
 
 typealias MessageListener = (MessageContext) -> Unit
 
-@Singleton
 class MessageEvents(
-    private val longPollingListener: LongPollingListener,
+    private val eventHandlers: EventHandlers,
     private val botVk: BotVk
 ) {
 
-    private fun getMessage(json: JsonObject): Message {
-        val messageJson = json["object"].asJsonObject
-        return botVk.vkContext.llVk.gson.fromJson(messageJson, Message::class.java)
-    }
-
+    // The message is only decoded if a handler needs more than its text and ids
     private fun createJsonListener(messageListener: MessageListener): JsonListener = { json ->
-        messageListener(MessageContext(botVk, getMessage(json)))
+        messageListener(MessageContext(botVk, json["object"].asJsonObject, Tracing.continueTrace(json)))
     }
 
     fun addEventListener(listener: MessageListener) {
-        longPollingListener.addHandler("message_new", createJsonListener(listener))
+        eventHandlers.add("message_new", createJsonListener(listener))
     }
 
 }
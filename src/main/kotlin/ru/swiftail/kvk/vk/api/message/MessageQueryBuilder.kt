@@ -4,8 +4,12 @@ import com.vk.api.sdk.objects.photos.Photo
 import com.vk.api.sdk.queries.messages.MessagesSendQuery
 import mu.KotlinLogging
 import ru.swiftail.kvk.vk.api.bot.BotVk
+import ru.swiftail.kvk.vk.api.bot.BotVkUpload
+import ru.swiftail.kvk.vk.api.bot.toAttachment
 import ru.swiftail.kvk.vk.api.file.ExtensionResolverStrategy
+import ru.swiftail.kvk.vk.api.file.FileProvider
 import ru.swiftail.kvk.vk.api.file.WebFileProvider
+import ru.swiftail.kvk.vk.api.media.PhotoUploadBatch
 import java.net.URI
 import kotlin.random.Random
 
@@ -21,12 +25,44 @@ class MessageQueryBuilder(private val botVk: BotVk) {
     fun setPeerId(v: Int) = this.apply { peerId = v }
 
     private val attachments = mutableListOf<String>()
-    fun attachPhoto(photo: Photo) = this.apply {
-        attachments += "photo${photo.ownerId}_${photo.id}"
+    fun attachPhoto(photo: Photo) = attach(photo.toAttachment())
+
+    fun attach(attachment: String) = this.apply {
+        attachments += attachment
     }
 
     suspend fun uploadPhoto(uri: URI, extensionResolverStrategy: ExtensionResolverStrategy)
-            = attachPhoto(botVk.upload.uploadMessagesPhoto(WebFileProvider(uri, extensionResolverStrategy)).first())
+            = attach(botVk.upload.uploadMessagesPhotoAttachment(WebFileProvider(uri, extensionResolverStrategy, botVk.mediaServices.downloader), uri))
+
+    /**
+     * Uploads several photos in parallel and attaches the uploaded ones in the given order
+     *
+     * @return the batch, with the photos that failed to upload
+     */
+    suspend fun uploadPhotos(
+        uris: List<URI>,
+        extensionResolverStrategy: ExtensionResolverStrategy,
+        concurrency: Int = BotVkUpload.DEFAULT_UPLOAD_CONCURRENCY
+    ) = uploadPhotoBatch(uris.map { WebFileProvider(it, extensionResolverStrategy, botVk.mediaServices.downloader) to it }, concurrency)
+
+    suspend fun uploadPhotos(
+        photos: List<FileProvider>,
+        concurrency: Int = BotVkUpload.DEFAULT_UPLOAD_CONCURRENCY
+    ) = uploadPhotoBatch(photos.map { it to null }, concurrency)
+
+    private suspend fun uploadPhotoBatch(
+        photos: List<Pair<FileProvider, URI?>>,
+        concurrency: Int
+    ): PhotoUploadBatch {
+        require(attachments.size + photos.size <= MAX_ATTACHMENTS) {
+            "A message can't have more than $MAX_ATTACHMENTS attachments"
+        }
+
+        val batch = botVk.upload.uploadMessagesPhotoAttachments(photos, concurrency)
+        batch.failures.forEach { logger.warn(it.error) { "Failed to upload photo #${it.index} ${it.source ?: ""}" } }
+        batch.attachments.forEach { attach(it) }
+        return batch
+    }
 
     fun build(): MessagesSendQuery {
         val query = vkContext.llVk
@@ -43,4 +79,9 @@ class MessageQueryBuilder(private val botVk: BotVk) {
         return query
     }
 
+    companion object {
+        // VK limit of attachments per message
+        const val MAX_ATTACHMENTS = 10
+    }
+
 }
@@ -0,0 +1,193 @@
+package ru.swiftail.kvk.vk.api.message
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import mu.KotlinLogging
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.coroutines.ContinuationInterceptor
+import kotlin.coroutines.coroutineContext
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Joins text replies to the same peer sent within [window] into as few messages as possible.
+ *
+ * Replies are separated with a line break, a message never gets longer than [MAX_MESSAGE_LENGTH].
+ * Messages sent when the window ends keep the context of the first reply, e.g. its trace and priority.
+ *
+ * @param scope runs the window timers, cancelling it drops what wasn't sent, see [flushAll]
+ * @param send sends one message and returns its id
+ */
+class OutgoingBuffer(
+    private val scope: CoroutineScope,
+    private val window: Long,
+    private val send: suspend (peerId: Int, text: String) -> Int
+) {
+
+    private val peers = ConcurrentHashMap<Int, PeerBuffer>()
+
+    /**
+     * @return id of the message the text ended up in
+     */
+    suspend fun append(peerId: Int, text: String): Deferred<Int> {
+        while (true) {
+            val buffer = peers.computeIfAbsent(peerId) { PeerBuffer(it) }
+            // A buffer removed by a concurrent flush is not used anymore, the next lookup creates a new one
+            buffer.append(text)?.let { return it }
+        }
+    }
+
+    /**
+     * Sends everything buffered for the peer and waits until it is sent
+     */
+    suspend fun flush(peerId: Int) {
+        peers[peerId]?.flush()
+    }
+
+    /**
+     * Sends everything buffered for every peer, e.g. before [scope] is cancelled
+     */
+    suspend fun flushAll() {
+        peers.values.forEach { it.flush() }
+    }
+
+    private class Pending(val text: String, val result: CompletableDeferred<Int>)
+
+    /**
+     * Replies taken out of the buffer, sent after [previous] so messages keep their order
+     */
+    private class Batch(val replies: List<Pending>, val previous: Job?, val done: CompletableDeferred<Unit>)
+
+    private inner class PeerBuffer(private val peerId: Int) {
+
+        // Guards the state only, messages are sent without holding it
+        private val mutex = Mutex()
+
+        private val pending = mutableListOf<Pending>()
+        private var pendingLength = 0
+        private var timer: Job? = null
+        private var removed = false
+
+        /**
+         * Completes when the last taken batch is sent
+         */
+        private var lastSend: Job? = null
+
+        suspend fun append(text: String): Deferred<Int>? {
+            var overflow: Batch? = null
+            val result = mutex.withLock {
+                if (removed) return null
+
+                // The window keeps running for the replies that follow
+                if (pending.isNotEmpty() && pendingLength + SEPARATOR.length + text.length > MAX_MESSAGE_LENGTH) {
+                    overflow = takePending()
+                }
+
+                val result = CompletableDeferred<Int>()
+                pending += Pending(text, result)
+                pendingLength += (if (pendingLength > 0) SEPARATOR.length else 0) + text.length
+
+                if (timer == null) {
+                    // Only the elements of the caller, its job and dispatcher stay out of the timer
+                    val context = coroutineContext.minusKey(Job).minusKey(ContinuationInterceptor)
+                    timer = scope.launch(context) {
+                        delay(window)
+                        flush(fromTimer = true)
+                    }
+                }
+                result
+            }
+            overflow?.let { sendBatch(it) }
+            return result
+        }
+
+        suspend fun flush(fromTimer: Boolean = false) {
+            val (batch, previous) = mutex.withLock {
+                // The timer must not cancel itself while it is sending
+                if (!fromTimer) timer?.cancel()
+                timer = null
+                val previous = lastSend
+                takePending() to previous
+            }
+
+            if (batch != null) sendBatch(batch) else previous?.join()
+
+            mutex.withLock {
+                // Replies buffered while sending keep the buffer, their timer sends them
+                if (pending.isEmpty() && timer == null && lastSend.let { it == null || it.isCompleted }) {
+                    removed = true
+                    peers.remove(peerId, this)
+                }
+            }
+        }
+
+        /**
+         * Must be called with [mutex] held
+         */
+        private fun takePending(): Batch? {
+            if (pending.isEmpty()) return null
+
+            val batch = Batch(pending.toList(), lastSend, CompletableDeferred())
+            pending.clear()
+            pendingLength = 0
+            lastSend = batch.done
+            return batch
+        }
+
+        private suspend fun sendBatch(batch: Batch) {
+            val replies = batch.replies
+            try {
+                batch.previous?.join()
+
+                val text = replies.joinToString(SEPARATOR) { it.text }
+                var firstId: Int? = null
+                // Only a single oversized reply can make the text longer than a message
+                for (part in split(text)) {
+                    val id = send(peerId, part)
+                    if (firstId == null) firstId = id
+                }
+                replies.forEach { it.result.complete(firstId!!) }
+            } catch (e: Throwable) {
+                if (e !is CancellationException) logger.warn(e) { "Failed to send ${replies.size} replies to $peerId" }
+                replies.forEach { it.result.completeExceptionally(e) }
+                if (e is CancellationException) throw e
+            } finally {
+                batch.done.complete(Unit)
+            }
+        }
+
+    }
+
+    companion object {
+        // VK limit of characters per message
+        const val MAX_MESSAGE_LENGTH = 4096
+
+        private const val SEPARATOR = "\n"
+
+        /**
+         * Splits text into parts of at most [limit] characters, at line breaks where possible
+         */
+        fun split(text: String, limit: Int = MAX_MESSAGE_LENGTH): List<String> {
+            if (text.length <= limit) return listOf(text)
+
+            val parts = mutableListOf<String>()
+            var start = 0
+            while (text.length - start > limit) {
+                val lineBreak = text.lastIndexOf('\n', start + limit)
+                val end = if (lineBreak > start) lineBreak else start + limit
+                parts += text.substring(start, end)
+                start = if (lineBreak > start) end + 1 else end
+            }
+            if (start < text.length) parts += text.substring(start)
+            return parts
+        }
+    }
+
+}
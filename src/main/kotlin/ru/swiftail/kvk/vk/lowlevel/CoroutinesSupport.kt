@@ -1,26 +1,170 @@
 package ru.swiftail.kvk.vk.lowlevel
 
+import com.google.common.util.concurrent.RateLimiter
 import com.vk.api.sdk.client.ApiRequest
+import com.vk.api.sdk.exceptions.ApiException
+import com.vk.api.sdk.exceptions.ClientException
 import kotlinx.coroutines.*
+import ru.swiftail.kvk.metrics.Metrics
+import ru.swiftail.kvk.metrics.PipelineMetrics
+import ru.swiftail.kvk.tracing.Span
+import ru.swiftail.kvk.tracing.TraceContext
+import ru.swiftail.kvk.vk.lowlevel.scheduler.ApiPriority
+import ru.swiftail.kvk.vk.lowlevel.scheduler.ApiPriorityElement
+import ru.swiftail.kvk.vk.lowlevel.scheduler.ApiScheduler
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.coroutines.EmptyCoroutineContext
+import kotlin.coroutines.coroutineContext
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
 
 
-private val coroutinesContext = newFixedThreadPoolContext(12, "api") + SupervisorJob()
+/**
+ * Executes the request and suspends until it is done.
+ * Cancelling the caller drops the queued request or interrupts the running one.
+ *
+ * @param rateLimiter budget of the group the request is made for, if any
+ * @param priority class the request is scheduled in, by default the one of the [ApiPriorityElement]
+ * in the caller's context, or [ApiPriority.INTERACTIVE]
+ */
+suspend fun <T> ApiRequest<T>.await(
+    rateLimiter: RateLimiter? = null,
+    priority: ApiPriority? = null
+): T = awaitScheduled(this, rateLimiter, priority) { execute() }
 
-private val scope = CoroutineScope(coroutinesContext)
+/**
+ * Like [await], but returns the raw response for responses the SDK can't parse
+ */
+suspend fun ApiRequest<*>.awaitString(
+    rateLimiter: RateLimiter? = null,
+    priority: ApiPriority? = null
+): String = awaitScheduled(this, rateLimiter, priority) { executeAsString() }
 
-fun <T> ApiRequest<T>.runAsync(): Deferred<T> {
+/**
+ * Starts the request without waiting for it, for fire-and-forget calls.
+ * Prefer [await] where the caller needs the result.
+ *
+ * @param rateLimiter budget of the group the request is made for, if any
+ * @param priority class the request is scheduled in, see [ApiScheduler]
+ * @param parent the request is cancelled when this job is cancelled
+ * @param trace the request is recorded as a span of this trace
+ */
+fun <T> ApiRequest<T>.runAsync(
+    rateLimiter: RateLimiter? = null,
+    priority: ApiPriority = ApiPriority.INTERACTIVE,
+    parent: Job? = null,
+    trace: TraceContext? = null
+): Deferred<T> {
     val request = this
-    return scope.async {
-        try {
-            request.execute()
-        } catch (e: Throwable) {
-            throw RuntimeException(
-                """
-                API error.
-                Method: $request
-                Error: $e
-            """.trimIndent(), e
-            )
+    // A scope of its own, a failure stays in the result and is not reported anywhere else
+    val scope = CoroutineScope(Dispatchers.Default + (trace ?: EmptyCoroutineContext))
+    val result = scope.async(start = CoroutineStart.UNDISPATCHED) { request.await(rateLimiter, priority) }
+    parent?.let { job ->
+        // Not a child of the job, a failed request shouldn't cancel its caller
+        val handle = job.invokeOnCompletion { cause -> if (cause != null) result.cancel() }
+        result.invokeOnCompletion { handle.dispose() }
+    }
+    return result
+}
+
+private suspend fun <T> awaitScheduled(
+    request: ApiRequest<*>,
+    rateLimiter: RateLimiter?,
+    priority: ApiPriority?,
+    execute: () -> T
+): T {
+    val scheduledPriority = priority
+        ?: coroutineContext[ApiPriorityElement]?.priority
+        ?: ApiPriority.INTERACTIVE
+
+    val span = apiSpan(coroutineContext[TraceContext], request, scheduledPriority)
+
+    try {
+        // Taken before the call is queued, a group over its budget must not hold a shared worker
+        rateLimiter?.acquireSuspending()
+    } catch (e: CancellationException) {
+        span?.endWith(e)
+        throw e
+    }
+
+    return suspendCancellableCoroutine { continuation ->
+        val call = ApiScheduler.DEFAULT.submit(scheduledPriority) {
+            if (!continuation.isActive) return@submit
+            try {
+                val result = instrumented(request, execute)
+                span?.end()
+                continuation.resume(result)
+            } catch (e: Throwable) {
+                span?.endWith(e)
+                // Resuming a cancelled continuation is a no-op
+                continuation.resumeWithException(apiError(request, e))
+            }
+        }
+        continuation.invokeOnCancellation { cause ->
+            call.cancel()
+            span?.endWith(cause ?: CancellationException())
+        }
+    }
+}
+
+/**
+ * Waits for a permit without blocking the thread
+ */
+private suspend fun RateLimiter.acquireSuspending() {
+    while (!tryAcquire()) {
+        delay(maxOf(1L, (1000 / rate).toLong()))
+    }
+}
+
+/**
+ * Span of a call, from queueing to the response
+ */
+private fun apiSpan(trace: TraceContext?, request: ApiRequest<*>, priority: ApiPriority): Span? {
+    return trace?.startChild("api " + methodOf(request))?.attribute("vk.priority", priority.label)
+}
+
+private fun Span.endWith(cause: Throwable?) {
+    if (cause != null) attribute("error", cause.javaClass.simpleName)
+    end()
+}
+
+private val methodNames = ConcurrentHashMap<Class<*>, String>()
+
+/**
+ * API method of a query, derived from its class: `PhotosSaveMessagesPhotoQuery` is `photos.saveMessagesPhoto`
+ */
+private fun methodOf(request: ApiRequest<*>): String {
+    return methodNames.computeIfAbsent(request.javaClass) { type ->
+        val name = type.simpleName.removeSuffix("Query")
+        val sectionEnd = name.withIndex().indexOfFirst { (index, char) -> index > 0 && char.isUpperCase() }
+        if (sectionEnd < 0) name.decapitalize()
+        else name.substring(0, sectionEnd).decapitalize() + "." + name.substring(sectionEnd).decapitalize()
+    }
+}
+
+private inline fun <T> instrumented(request: ApiRequest<*>, execute: () -> T): T {
+    val start = Metrics.now()
+    try {
+        return execute()
+    } catch (e: Throwable) {
+        if (Metrics.enabled) {
+            val code = when (e) {
+                is ApiException -> e.code?.toString() ?: "api"
+                is ClientException -> "client"
+                else -> "other"
+            }
+            PipelineMetrics.apiErrors.labels(code).increment()
         }
+        throw e
+    } finally {
+        if (start != 0L) PipelineMetrics.apiLatency.labels(methodOf(request)).recordSince(start)
     }
 }
+
+private fun apiError(request: ApiRequest<*>, e: Throwable) = RuntimeException(
+    """
+    API error.
+    Method: $request
+    Error: $e
+""".trimIndent(), e
+)
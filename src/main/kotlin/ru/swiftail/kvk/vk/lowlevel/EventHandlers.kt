@@ -0,0 +1,27 @@
+package ru.swiftail.kvk.vk.lowlevel
+
+import com.google.gson.JsonObject
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArraySet
+
+typealias JsonListener = (JsonObject) -> Unit
+
+/**
+ * Handlers of raw VK events, keyed by event type.
+ * Shared by every event source of a group (long poll, callback api).
+ */
+class EventHandlers {
+
+    private val handlers = ConcurrentHashMap<String, MutableSet<JsonListener>>()
+
+    fun add(event: String, handler: JsonListener): EventHandlers {
+        handlers.computeIfAbsent(event) { CopyOnWriteArraySet() }.add(handler)
+        return this
+    }
+
+    fun dispatch(update: JsonObject) {
+        val type = update["type"]?.asString ?: return
+        handlers[type]?.forEach { it.invoke(update) }
+    }
+
+}
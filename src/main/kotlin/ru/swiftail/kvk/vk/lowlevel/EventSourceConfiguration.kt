@@ -0,0 +1,12 @@
+package ru.swiftail.kvk.vk.lowlevel
+
+enum class EventSourceType {
+    LONG_POLL,
+    CALLBACK
+}
+
+class EventSourceConfiguration(
+    val type: EventSourceType,
+    val callbackPort: Int,
+    val callbackPath: String
+)
@@ -1,6 +1,5 @@
 package ru.swiftail.kvk.vk.lowlevel
 
-import com.google.common.collect.Multimaps
 import com.google.gson.JsonObject
 import com.vk.api.sdk.client.VkApiClient
 import com.vk.api.sdk.client.actors.GroupActor
@@ -8,75 +7,132 @@ import com.vk.api.sdk.exceptions.ApiException
 import com.vk.api.sdk.exceptions.ClientException
 import com.vk.api.sdk.exceptions.LongPollServerKeyExpiredException
 import org.slf4j.LoggerFactory
+import ru.swiftail.kvk.metrics.Metrics
+import ru.swiftail.kvk.metrics.PipelineMetrics
+import ru.swiftail.kvk.tracing.Tracing
+import ru.swiftail.kvk.vk.lowlevel.bus.EventBus
+import ru.swiftail.kvk.vk.lowlevel.leader.TsCheckpoint
 import java.net.SocketTimeoutException
 import java.util.function.Consumer
-import javax.inject.Named
-import javax.inject.Singleton
 
-typealias JsonListener = (JsonObject) -> Unit
-
-@Suppress("PLATFORM_CLASS_MAPPED_TO_KOTLIN")
-@Singleton
 class LongPollingListener(
     private val vk: VkApiClient,
     private val actor: GroupActor,
-    @Named("vk_group_id") private val groupId: Integer
+    private val groupId: Int,
+    private val eventBus: EventBus,
+    private val checkpoint: TsCheckpoint = TsCheckpoint.NONE
 ) {
-    private val handlers = Multimaps.newSetMultimap<String, JsonListener>(hashMapOf()) { hashSetOf() }
+    @Volatile
     private lateinit var server: String
+
+    @Volatile
     private lateinit var key: String
+
+    @Volatile
     private var ts = 0
 
+    /**
+     * Polling thread, at most one is alive at a time
+     */
+    @Volatile
+    private var poller: Poller? = null
+
+    /**
+     * True while a polling thread is alive, including one that was asked to stop
+     * and is finishing its current request
+     */
+    val isListening: Boolean
+        get() = poller?.isAlive == true
+
     @Throws(ClientException::class, ApiException::class)
     fun connect() {
         val longPollServer = vk.groups()
-            .getLongPollServer(actor, groupId as Int)
+            .getLongPollServer(actor, groupId)
             .execute()
         server = longPollServer.server
         key = longPollServer.key
-        ts = longPollServer.ts.toInt()
+        ts = checkpoint.load(groupId, MAX_RESUME_AGE_MILLIS)
+            ?.also { logger.info("Resuming long poll of group {} from checkpointed ts {}", groupId, it) }
+            ?: longPollServer.ts.toInt()
     }
 
-    @Throws(ClientException::class, ApiException::class)
+    /**
+     * Starts polling unless a polling thread is still alive, [connect] must have been called
+     */
+    @Synchronized
     fun startListening() {
-        Thread({
-            while (true) {
+        if (isListening) return
+        poller = Poller().apply { start() }
+    }
+
+    /**
+     * Stops polling after the current request completes, [isListening] stays true until then
+     */
+    @Synchronized
+    fun stopListening() {
+        poller?.stopped = true
+    }
+
+    private inner class Poller : Thread("LongPoll-$groupId") {
+
+        @Volatile
+        var stopped = false
+
+        private var reconnect = false
+
+        override fun run() {
+            while (!stopped) {
                 try {
-                    logger.debug("Making longpoll")
-                    val response = vk.longPoll()
-                        .getEvents(server, key, ts)
-                        .waitTime(30)
-                        .execute()
-                    ts = response.ts
-                    val updates = response.updates
-                    updates.forEach(Consumer { jsonObject: JsonObject ->
-                        val type = jsonObject["type"].asString
-                        val handlers = handlers[type]
-                        handlers.forEach { it.invoke(jsonObject) }
-                    })
+                    if (reconnect) {
+                        connect()
+                        reconnect = false
+                    }
+                    poll()
                 } catch (e: LongPollServerKeyExpiredException) {
                     logger.info("Key expired. Regeneration...")
-                    connect()
-                } catch (e: ClientException) {
-                    logger.error("Long poll error", e)
-                    connect()
+                    reconnect = true
                 } catch (e: SocketTimeoutException) {
                     logger.warn("Socket timeout exception", e)
-                    continue
+                } catch (e: Exception) {
+                    // Any failure is retried, a dead thread would keep the lease without polling
+                    logger.error("Long poll error of group {}, reconnecting", groupId, e)
+                    reconnect = true
+                    try {
+                        sleep(RETRY_DELAY_MILLIS)
+                    } catch (e: InterruptedException) {
+                        break
+                    }
                 }
             }
-        }, "LongPoll").start()
-    }
+        }
 
-    fun addHandler(
-        event: String,
-        handler: JsonListener
-    ): LongPollingListener {
-        handlers.put(event, handler)
-        return this
+        private fun poll() {
+            if (logger.isTraceEnabled) logger.trace("Making long poll of group {}", groupId)
+            val pollStart = Metrics.now()
+            val response = vk.longPoll()
+                .getEvents(server, key, ts)
+                .waitTime(30)
+                .execute()
+            PipelineMetrics.pollLatency.recordSince(pollStart)
+            // Lost the lease while waiting, the new leader will fetch these updates
+            if (stopped) return
+            ts = response.ts
+            val updates = response.updates
+            PipelineMetrics.pollBatchSize.record(updates.size.toLong())
+            updates.forEach(Consumer { jsonObject: JsonObject ->
+                Tracing.markReceived(jsonObject)
+                eventBus.publish(jsonObject)
+            })
+            checkpoint.save(groupId, ts)
+        }
     }
 
     companion object {
         private val logger = LoggerFactory.getLogger(LongPollingListener::class.java)
+
+        // VK keeps long poll history for a limited time, older checkpoints are ignored
+        private const val MAX_RESUME_AGE_MILLIS = 10 * 60 * 1000L
+
+        private const val RETRY_DELAY_MILLIS = 1000L
     }
 }
@@ -0,0 +1,81 @@
+package ru.swiftail.kvk.vk.lowlevel
+
+import ru.swiftail.kvk.vk.api.file.MediaStream
+import ru.swiftail.kvk.vk.api.media.DirectBufferPool
+import java.io.FileInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.net.HttpURLConnection
+import java.net.URL
+import java.nio.ByteBuffer
+import java.nio.channels.Channels
+import java.util.*
+
+/**
+ * Streams a single file into a `multipart/form-data` POST.
+ * The request body is never held in memory, only a pooled copy buffer is.
+ */
+object MultipartUpload {
+
+    private const val CONNECT_TIMEOUT_MILLIS = 10_000
+    private const val READ_TIMEOUT_MILLIS = 60_000
+
+    /**
+     * @return response body
+     */
+    @Throws(IOException::class)
+    fun post(url: String, field: String, media: MediaStream, buffers: DirectBufferPool): String {
+        require(media.isLengthKnown) { "Streaming upload requires a known content length" }
+
+        val boundary = "kvk" + UUID.randomUUID().toString().replace("-", "")
+        val head = ("--$boundary\r\n" +
+                "Content-Disposition: form-data; name=\"$field\"; filename=\"${media.fileName}\"\r\n" +
+                "Content-Type: application/octet-stream\r\n\r\n").toByteArray(Charsets.UTF_8)
+        val tail = "\r\n--$boundary--\r\n".toByteArray(Charsets.UTF_8)
+
+        val connection = URL(url).openConnection() as HttpURLConnection
+        try {
+            connection.requestMethod = "POST"
+            connection.doOutput = true
+            connection.connectTimeout = CONNECT_TIMEOUT_MILLIS
+            connection.readTimeout = READ_TIMEOUT_MILLIS
+            connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=$boundary")
+            connection.setFixedLengthStreamingMode(head.size + media.length + tail.size)
+
+            connection.outputStream.use { output ->
+                output.write(head)
+                buffers.use { buffer -> copyExactly(media.input, output, media.length, buffer) }
+                output.write(tail)
+            }
+
+            val code = connection.responseCode
+            if (code !in 200..299) {
+                throw IOException("Upload to $url failed with HTTP $code")
+            }
+            return connection.inputStream.use { String(it.readBytes(), Charsets.UTF_8) }
+        } finally {
+            connection.disconnect()
+        }
+    }
+
+    private fun copyExactly(input: InputStream, output: OutputStream, length: Long, buffer: ByteBuffer) {
+        // Files are read through their channel straight into the direct buffer
+        val source = if (input is FileInputStream) input.channel else Channels.newChannel(input)
+        val target = Channels.newChannel(output)
+
+        var remaining = length
+        while (remaining > 0) {
+            buffer.clear()
+            if (remaining < buffer.capacity()) buffer.limit(remaining.toInt())
+
+            val read = source.read(buffer)
+            if (read < 0) throw IOException("Media ended $remaining bytes before its declared length")
+
+            buffer.flip()
+            while (buffer.hasRemaining()) target.write(buffer)
+            remaining -= read
+        }
+    }
+
+}
@@ -0,0 +1,27 @@
+package ru.swiftail.kvk.vk.lowlevel.bus
+
+import com.google.gson.JsonObject
+
+typealias EventConsumer = (JsonObject) -> Unit
+
+/**
+ * Carries raw updates from event sources (long poll, callback api)
+ * to the handlers of their groups, possibly in another process.
+ */
+interface EventBus {
+
+    /**
+     * Called by event sources for every received update
+     */
+    fun publish(update: JsonObject)
+
+    /**
+     * Sets the consumer of updates on the processing side
+     */
+    fun subscribe(consumer: EventConsumer)
+
+    fun start()
+
+    fun stop()
+
+}
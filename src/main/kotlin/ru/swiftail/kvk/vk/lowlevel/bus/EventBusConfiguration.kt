@@ -0,0 +1,43 @@
+package ru.swiftail.kvk.vk.lowlevel.bus
+
+enum class NodeRole {
+    /**
+     * Receives and processes events in one process
+     */
+    STANDALONE,
+
+    /**
+     * Only receives events and hands them over to workers
+     */
+    POLLER,
+
+    /**
+     * Only processes events received from the poller
+     */
+    WORKER;
+
+    val receivesEvents: Boolean
+        get() = this != WORKER
+
+    val processesEvents: Boolean
+        get() = this != POLLER
+}
+
+class EventBusConfiguration(
+    val role: NodeRole,
+    /**
+     * Address of the poller, for workers
+     */
+    val host: String,
+    /**
+     * Interface the poller listens on
+     */
+    val bindHost: String,
+    val port: Int,
+    /**
+     * Shared by the poller and its workers, required unless standalone
+     */
+    val secret: String?,
+    val workers: Int,
+    val workerIndex: Int
+)
@@ -0,0 +1,23 @@
+package ru.swiftail.kvk.vk.lowlevel.bus
+
+import io.micronaut.context.annotation.Factory
+import java.net.InetAddress
+import javax.inject.Singleton
+
+@Factory
+class EventBusFactory(private val configuration: EventBusConfiguration) {
+
+    @Singleton
+    fun getEventBus(): EventBus {
+        if (configuration.role == NodeRole.STANDALONE) return InProcessEventBus()
+
+        val secret = requireNotNull(configuration.secret) { "KVK_BUS_SECRET is required for the socket event bus" }
+        return when (configuration.role) {
+            NodeRole.POLLER -> SocketEventBusServer(
+                InetAddress.getByName(configuration.bindHost), configuration.port, configuration.workers, secret
+            )
+            else -> SocketEventBusClient(configuration.host, configuration.port, configuration.workerIndex, secret)
+        }
+    }
+
+}
@@ -0,0 +1,59 @@
+package ru.swiftail.kvk.vk.lowlevel.bus
+
+import com.google.gson.JsonObject
+import mu.KotlinLogging
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Default bus: a bounded queue drained by a single thread.
+ * Event sources block when the queue is full.
+ */
+class InProcessEventBus(capacity: Int = DEFAULT_CAPACITY) : EventBus {
+
+    private val queue: BlockingQueue<JsonObject> = ArrayBlockingQueue(capacity)
+
+    @Volatile
+    private var consumer: EventConsumer? = null
+
+    private var thread: Thread? = null
+
+    override fun publish(update: JsonObject) {
+        queue.put(update)
+    }
+
+    override fun subscribe(consumer: EventConsumer) {
+        this.consumer = consumer
+    }
+
+    override fun start() {
+        thread = Thread({
+            while (!Thread.currentThread().isInterrupted) {
+                val update = try {
+                    queue.take()
+                } catch (e: InterruptedException) {
+                    break
+                }
+                try {
+                    consumer?.invoke(update)
+                } catch (e: Throwable) {
+                    logger.error(e) { "Event consumer failed" }
+                }
+            }
+        }, "EventBus").apply {
+            isDaemon = true
+            start()
+        }
+    }
+
+    override fun stop() {
+        thread?.interrupt()
+    }
+
+    companion object {
+        const val DEFAULT_CAPACITY = 10_000
+    }
+
+}
@@ -0,0 +1,26 @@
+package ru.swiftail.kvk.vk.lowlevel.bus
+
+import com.google.gson.JsonObject
+
+object Partitioning {
+
+    /**
+     * Peer the update belongs to, both for the flat and the
+     * `{ message: ..., client_info: ... }` shapes of message events
+     */
+    fun peerIdOf(update: JsonObject): Int? {
+        val obj = update["object"]?.takeIf { it.isJsonObject }?.asJsonObject ?: return null
+        val message = obj["message"]?.takeIf { it.isJsonObject }?.asJsonObject ?: obj
+        return message["peer_id"]?.takeIf { it.isJsonPrimitive }?.asInt
+    }
+
+    /**
+     * Updates of the same chat always land in the same partition,
+     * updates without a peer are spread by group
+     */
+    fun partitionOf(update: JsonObject, partitions: Int): Int {
+        val key = peerIdOf(update) ?: update["group_id"]?.asInt ?: 0
+        return Math.floorMod(key, partitions)
+    }
+
+}
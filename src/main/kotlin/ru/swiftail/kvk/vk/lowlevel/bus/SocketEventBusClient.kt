@@ -0,0 +1,94 @@
+package ru.swiftail.kvk.vk.lowlevel.bus
+
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import mu.KotlinLogging
+import java.io.BufferedReader
+import java.io.IOException
+import java.io.InputStreamReader
+import java.io.OutputStreamWriter
+import java.net.Socket
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Worker side of the socket bus, see [SocketEventBusServer].
+ * Every update is acknowledged once the consumer returns, failed or not.
+ */
+class SocketEventBusClient(
+    private val host: String,
+    private val port: Int,
+    private val workerIndex: Int,
+    private val secret: String
+) : EventBus {
+
+    @Volatile
+    private var consumer: EventConsumer? = null
+
+    @Volatile
+    private var running = false
+
+    @Volatile
+    private var socket: Socket? = null
+
+    override fun publish(update: JsonObject) {
+        throw UnsupportedOperationException("Worker does not publish events")
+    }
+
+    override fun subscribe(consumer: EventConsumer) {
+        this.consumer = consumer
+    }
+
+    override fun start() {
+        running = true
+        Thread({
+            while (running) {
+                try {
+                    consume()
+                } catch (e: IOException) {
+                    if (!running) break
+                    logger.warn { "Event bus connection to $host:$port lost: $e" }
+                    Thread.sleep(RECONNECT_DELAY_MILLIS)
+                }
+            }
+        }, "EventBus-client").apply {
+            isDaemon = true
+            start()
+        }
+    }
+
+    override fun stop() {
+        running = false
+        socket?.close()
+    }
+
+    private fun consume() {
+        Socket(host, port).use { socket ->
+            this.socket = socket
+
+            val writer = OutputStreamWriter(socket.getOutputStream(), Charsets.UTF_8)
+            writer.write("worker $workerIndex $secret\n")
+            writer.flush()
+
+            logger.info { "Worker $workerIndex connected to event bus at $host:$port" }
+
+            val reader = BufferedReader(InputStreamReader(socket.getInputStream(), Charsets.UTF_8))
+            while (running) {
+                val line = reader.readLine() ?: throw IOException("Event bus closed the connection")
+                val seq = line.substringBefore(' ')
+                try {
+                    consumer?.invoke(JsonParser().parse(line.substringAfter(' ')).asJsonObject)
+                } catch (e: Throwable) {
+                    logger.error(e) { "Event consumer failed" }
+                }
+                writer.write("ack $seq\n")
+                writer.flush()
+            }
+        }
+    }
+
+    companion object {
+        private const val RECONNECT_DELAY_MILLIS = 1000L
+    }
+
+}
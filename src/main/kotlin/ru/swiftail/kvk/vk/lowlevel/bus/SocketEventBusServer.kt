@@ -0,0 +1,276 @@
+package ru.swiftail.kvk.vk.lowlevel.bus
+
+import com.google.gson.JsonObject
+import mu.KotlinLogging
+import java.io.BufferedReader
+import java.io.BufferedWriter
+import java.io.IOException
+import java.io.InputStreamReader
+import java.io.OutputStreamWriter
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.ServerSocket
+import java.net.Socket
+import java.security.MessageDigest
+import java.util.concurrent.LinkedBlockingDeque
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Poller side of the socket bus.
+ *
+ * Workers connect over TCP and introduce themselves with `worker <index> <secret>`.
+ * Updates are partitioned by peer id, so every chat is served by one worker,
+ * and are buffered while the worker of their partition is not connected.
+ *
+ * Each partition has a single drain loop that writes to whichever connection of its worker is current,
+ * so a reconnect can't leave a stale writer taking updates from the queue.
+ *
+ * Updates are sent as `<seq> <json>` and the worker answers `ack <seq>` once its consumer took them.
+ * Updates not acknowledged when a connection is lost go back to the head of the queue,
+ * so delivery is at least once: a worker that dies after consuming an update may see it again.
+ *
+ * @param bindAddress interface to listen on, loopback unless workers run on other hosts
+ */
+class SocketEventBusServer(
+    private val bindAddress: InetAddress,
+    private val port: Int,
+    private val workers: Int,
+    private val secret: String,
+    capacity: Int = InProcessEventBus.DEFAULT_CAPACITY
+) : EventBus {
+
+    private class Connection(val socket: Socket, val reader: BufferedReader) {
+        val writer = BufferedWriter(OutputStreamWriter(socket.getOutputStream(), Charsets.UTF_8))
+
+        /**
+         * Sent and not yet acknowledged updates by sequence number, guarded by the partition
+         */
+        val inFlight = LinkedHashMap<Long, String>()
+        var nextSeq = 0L
+
+        /**
+         * Limits the updates a worker holds unacknowledged
+         */
+        val window = Semaphore(MAX_IN_FLIGHT)
+    }
+
+    private class Partition(capacity: Int) {
+        val queue = LinkedBlockingDeque<String>(capacity)
+
+        // Guarded by this partition
+        var connection: Connection? = null
+    }
+
+    private val partitions = Array(workers) { Partition(capacity) }
+
+    @Volatile
+    private var running = false
+
+    private lateinit var serverSocket: ServerSocket
+
+    /**
+     * Port the bus listens on, useful when started with port 0
+     */
+    val localPort: Int
+        get() = serverSocket.localPort
+
+    override fun publish(update: JsonObject) {
+        val partition = Partitioning.partitionOf(update, workers)
+        if (!partitions[partition].queue.offerLast(update.toString())) {
+            logger.warn { "Partition $partition is full, update dropped" }
+        }
+    }
+
+    override fun subscribe(consumer: EventConsumer) {
+        throw UnsupportedOperationException("Poller does not consume events")
+    }
+
+    override fun start() {
+        running = true
+        serverSocket = ServerSocket()
+        serverSocket.bind(InetSocketAddress(bindAddress, port))
+
+        partitions.forEachIndexed { index, partition ->
+            daemon("EventBus-worker-$index") { drain(index, partition) }
+        }
+
+        daemon("EventBus-accept") {
+            while (!serverSocket.isClosed) {
+                try {
+                    val socket = serverSocket.accept()
+                    // A silent client only holds up its own handshake
+                    daemon("EventBus-handshake") { handshake(socket) }
+                } catch (e: IOException) {
+                    if (!serverSocket.isClosed) logger.error(e) { "Failed to accept worker connection" }
+                }
+            }
+        }
+        logger.info { "Event bus is waiting for $workers worker(s) on ${serverSocket.localSocketAddress}" }
+    }
+
+    override fun stop() {
+        running = false
+        serverSocket.close()
+        partitions.forEachIndexed { index, partition ->
+            partition.connection?.let { disconnect(index, partition, it) }
+        }
+    }
+
+    private fun handshake(socket: Socket) {
+        var reader: BufferedReader? = null
+        val hello = try {
+            socket.soTimeout = HANDSHAKE_TIMEOUT_MILLIS
+            reader = BufferedReader(InputStreamReader(socket.getInputStream(), Charsets.UTF_8))
+            reader.readLine()
+        } catch (e: IOException) {
+            null
+        }
+
+        val words = hello?.split(' ', limit = 3)
+        val index = words?.getOrNull(1)?.toIntOrNull()
+        val validSecret = words?.getOrNull(2)?.let {
+            MessageDigest.isEqual(it.toByteArray(Charsets.UTF_8), secret.toByteArray(Charsets.UTF_8))
+        } ?: false
+
+        if (reader == null || words?.size != 3 || words[0] != "worker" || index == null || index !in 0 until workers || !validSecret) {
+            logger.warn { "Rejected worker connection from ${socket.remoteSocketAddress}" }
+            socket.close()
+            return
+        }
+
+        val connection = try {
+            socket.soTimeout = 0
+            Connection(socket, reader)
+        } catch (e: IOException) {
+            socket.close()
+            return
+        }
+
+        val partition = partitions[index]
+        synchronized(partition) {
+            // A reconnected worker replaces its stale connection, what it didn't acknowledge is sent again
+            partition.connection?.let { disconnect(index, partition, it) }
+            partition.connection = connection
+        }
+        logger.info { "Worker $index connected from ${socket.remoteSocketAddress}" }
+
+        readAcks(index, partition, connection)
+    }
+
+    private fun readAcks(index: Int, partition: Partition, connection: Connection) {
+        try {
+            while (true) {
+                val line = connection.reader.readLine() ?: break
+                val seq = line.removePrefix("ack ").toLongOrNull() ?: continue
+                acknowledge(partition, connection, seq)
+            }
+        } catch (e: IOException) {
+            // Disconnected below
+        }
+        if (disconnect(index, partition, connection)) {
+            logger.warn { "Worker $index disconnected" }
+        }
+    }
+
+    /**
+     * Acknowledgements are cumulative, the worker consumes updates in order
+     */
+    private fun acknowledge(partition: Partition, connection: Connection, seq: Long) {
+        var acknowledged = 0
+        synchronized(partition) {
+            val iterator = connection.inFlight.keys.iterator()
+            while (iterator.hasNext() && iterator.next() <= seq) {
+                iterator.remove()
+                acknowledged++
+            }
+        }
+        connection.window.release(acknowledged)
+    }
+
+    /**
+     * Drops the connection if it is still the current one and puts its unacknowledged updates back
+     *
+     * @return false if the connection was already dropped
+     */
+    private fun disconnect(index: Int, partition: Partition, connection: Connection): Boolean {
+        val dropped = synchronized(partition) {
+            if (partition.connection !== connection) return@synchronized false
+            partition.connection = null
+            // In reverse, so they keep their order ahead of the queued updates
+            connection.inFlight.values.reversed().forEach { requeue(index, partition, it) }
+            connection.inFlight.clear()
+            true
+        }
+        connection.socket.close()
+        return dropped
+    }
+
+    private fun drain(index: Int, partition: Partition) {
+        while (running) {
+            val connection = synchronized(partition) { partition.connection }
+            if (connection == null) {
+                Thread.sleep(RECONNECT_POLL_MILLIS)
+                continue
+            }
+
+            // A worker that holds too many updates gets no more until it acknowledges them
+            if (!connection.window.tryAcquire(RECONNECT_POLL_MILLIS, TimeUnit.MILLISECONDS)) continue
+
+            val line = partition.queue.pollFirst(RECONNECT_POLL_MILLIS, TimeUnit.MILLISECONDS)
+            if (line == null) {
+                connection.window.release()
+                continue
+            }
+
+            val seq = synchronized(partition) {
+                if (partition.connection !== connection) null
+                else connection.nextSeq++.also { connection.inFlight[it] = line }
+            }
+            if (seq == null) {
+                // The worker reconnected while waiting, the update goes to the new connection
+                requeue(index, partition, line)
+                continue
+            }
+
+            try {
+                connection.writer.write("$seq $line")
+                connection.writer.newLine()
+                connection.writer.flush()
+            } catch (e: IOException) {
+                // The line is in flight, the next connection of this worker gets it
+                if (disconnect(index, partition, connection)) {
+                    logger.warn { "Worker $index disconnected: $e" }
+                }
+            }
+        }
+    }
+
+    private fun requeue(index: Int, partition: Partition, line: String) {
+        if (!partition.queue.offerFirst(line)) {
+            logger.warn { "Partition $index is full, update dropped" }
+        }
+    }
+
+    private fun daemon(name: String, block: () -> Unit) {
+        Thread({
+            try {
+                block()
+            } catch (e: InterruptedException) {
+                // Stopped
+            }
+        }, name).apply {
+            isDaemon = true
+            start()
+        }
+    }
+
+    companion object {
+        private const val HANDSHAKE_TIMEOUT_MILLIS = 5000
+        private const val RECONNECT_POLL_MILLIS = 200L
+        private const val MAX_IN_FLIGHT = 1000
+    }
+
+}
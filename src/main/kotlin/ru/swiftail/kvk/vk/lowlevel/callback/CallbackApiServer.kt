@@ -0,0 +1,159 @@
+package ru.swiftail.kvk.vk.lowlevel.callback
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import com.google.gson.JsonPrimitive
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import mu.KotlinLogging
+import ru.swiftail.kvk.tracing.Tracing
+import ru.swiftail.kvk.vk.lowlevel.bus.EventBus
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.net.InetSocketAddress
+import java.security.MessageDigest
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Group as seen by the Callback API: confirmation code and optional secret key
+ */
+class CallbackGroup(
+    val confirmation: String,
+    val secret: String?
+)
+
+/**
+ * Embedded endpoint for the VK Callback API.
+ *
+ * Answers the confirmation handshake, validates the secret key
+ * and publishes events to the [EventBus].
+ */
+class CallbackApiServer(
+    private val bindAddress: InetSocketAddress,
+    private val path: String,
+    private val eventBus: EventBus,
+    private val threads: Int = DEFAULT_THREADS,
+    private val groups: (groupId: Int) -> CallbackGroup?
+) {
+
+    private lateinit var server: HttpServer
+    private lateinit var executor: ExecutorService
+
+    /**
+     * Actual address, useful when bound to port 0
+     */
+    val address: InetSocketAddress
+        get() = server.address
+
+    fun start() {
+        executor = Executors.newFixedThreadPool(
+            threads,
+            ThreadFactoryBuilder().setNameFormat("callback-%d").setDaemon(true).build()
+        )
+        server = HttpServer.create(bindAddress, BACKLOG)
+        server.executor = executor
+        server.createContext(path) { handle(it) }
+        server.start()
+        logger.info { "Callback API endpoint is listening on ${server.address}$path" }
+    }
+
+    fun stop() {
+        server.stop(0)
+        executor.shutdown()
+    }
+
+    private fun handle(exchange: HttpExchange) {
+        try {
+            if (exchange.requestMethod != "POST") {
+                return respond(exchange, 405, "method not allowed")
+            }
+
+            val body = readBody(exchange) ?: return respond(exchange, 413, "too large")
+
+            val update = try {
+                JsonParser().parse(body).asJsonObject
+            } catch (e: Exception) {
+                return respond(exchange, 400, "bad request")
+            }
+
+            // Anything but a primitive would throw on the accessors and drop the exchange unanswered
+            val groupId = update.primitive("group_id")?.asString?.toIntOrNull()
+                ?: return respond(exchange, 400, "bad request")
+            val type = update["type"]
+            if (type != null && !type.isJsonPrimitive) {
+                return respond(exchange, 400, "bad request")
+            }
+
+            val group = groups(groupId) ?: return respond(exchange, 404, "unknown group")
+
+            if (group.secret != null && !secretMatches(update, group.secret)) {
+                logger.warn { "Callback with invalid secret for group $groupId from ${exchange.remoteAddress}" }
+                return respond(exchange, 403, "forbidden")
+            }
+
+            if (type?.asString == "confirmation") {
+                return respond(exchange, 200, group.confirmation)
+            }
+
+            // VK retries the event unless it gets "ok" quickly, so answer before publishing
+            respond(exchange, 200, "ok")
+            exchange.close()
+            publish(update)
+
+        } catch (e: IOException) {
+            logger.warn(e) { "Failed to process callback request" }
+        } finally {
+            exchange.close()
+        }
+    }
+
+    // Constant time, the comparison doesn't tell how much of the secret was guessed
+    private fun secretMatches(update: JsonObject, secret: String): Boolean {
+        val received = update.primitive("secret")?.asString ?: return false
+        return MessageDigest.isEqual(received.toByteArray(Charsets.UTF_8), secret.toByteArray(Charsets.UTF_8))
+    }
+
+    private fun JsonObject.primitive(name: String): JsonPrimitive? {
+        return get(name)?.takeIf { it.isJsonPrimitive }?.asJsonPrimitive
+    }
+
+    private fun publish(update: JsonObject) {
+        try {
+            Tracing.markReceived(update)
+            eventBus.publish(update)
+        } catch (e: Throwable) {
+            logger.error(e) { "Failed to publish callback event" }
+        }
+    }
+
+    private fun readBody(exchange: HttpExchange): String? {
+        val output = ByteArrayOutputStream()
+        val buffer = ByteArray(8192)
+        val input = exchange.requestBody
+        while (true) {
+            val read = input.read(buffer)
+            if (read < 0) break
+            output.write(buffer, 0, read)
+            if (output.size() > MAX_BODY_SIZE) return null
+        }
+        return output.toString(Charsets.UTF_8.name())
+    }
+
+    private fun respond(exchange: HttpExchange, code: Int, text: String) {
+        val bytes = text.toByteArray(Charsets.UTF_8)
+        exchange.responseHeaders.add("Content-Type", "text/plain; charset=utf-8")
+        exchange.sendResponseHeaders(code, bytes.size.toLong())
+        exchange.responseBody.write(bytes)
+    }
+
+    companion object {
+        const val DEFAULT_THREADS = 4
+        private const val BACKLOG = 128
+        private const val MAX_BODY_SIZE = 1024 * 1024
+    }
+
+}
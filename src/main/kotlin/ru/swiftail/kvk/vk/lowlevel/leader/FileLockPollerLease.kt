@@ -0,0 +1,43 @@
+package ru.swiftail.kvk.vk.lowlevel.leader
+
+import java.nio.channels.FileChannel
+import java.nio.channels.FileLock
+import java.nio.channels.OverlappingFileLockException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+
+/**
+ * Lease backed by an OS file lock, for replicas running on one host.
+ * The lock is released by the OS if the process dies.
+ */
+class FileLockPollerLease(private val path: Path) : PollerLease {
+
+    private var channel: FileChannel? = null
+    private var lock: FileLock? = null
+
+    @Synchronized
+    override fun tryAcquire(): Boolean {
+        if (lock?.isValid == true) return true
+
+        Files.createDirectories(path.parent)
+        val channel = channel ?: FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+            .also { channel = it }
+
+        lock = try {
+            channel.tryLock()
+        } catch (e: OverlappingFileLockException) {
+            null
+        }
+        return lock != null
+    }
+
+    @Synchronized
+    override fun release() {
+        lock?.release()
+        lock = null
+        channel?.close()
+        channel = null
+    }
+
+}
@@ -0,0 +1,27 @@
+package ru.swiftail.kvk.vk.lowlevel.leader
+
+import java.nio.file.Path
+
+enum class LeaderElectionMode {
+    /**
+     * Single replica, always polls
+     */
+    NONE,
+
+    /**
+     * Replicas on one host, lease is a file lock
+     */
+    FILE,
+
+    /**
+     * Replicas share a user-provided [LeaseStore]
+     */
+    STORE
+}
+
+class LeaderElectionConfiguration(
+    val mode: LeaderElectionMode,
+    val directory: Path,
+    val leaseTtlMillis: Long,
+    val renewIntervalMillis: Long
+)
@@ -0,0 +1,50 @@
+package ru.swiftail.kvk.vk.lowlevel.leader
+
+import io.micronaut.context.ApplicationContext
+import io.micronaut.context.annotation.Factory
+import java.lang.management.ManagementFactory
+import java.util.*
+import javax.inject.Singleton
+
+@Factory
+class LeaderElectionFactory(
+    private val configuration: LeaderElectionConfiguration,
+    private val applicationContext: ApplicationContext
+) {
+
+    private val owner = ManagementFactory.getRuntimeMXBean().name + "/" + UUID.randomUUID()
+
+    @Singleton
+    fun getPollerLeases(): PollerLeases {
+        return when (configuration.mode) {
+            LeaderElectionMode.NONE -> PollerLeases { PollerLease.ALWAYS_HELD }
+            LeaderElectionMode.FILE -> PollerLeases { groupId ->
+                FileLockPollerLease(configuration.directory.resolve("poller-$groupId.lock"))
+            }
+            LeaderElectionMode.STORE -> {
+                val store = applicationContext.findBean(LeaseStore::class.java)
+                    .orElseThrow { IllegalStateException("KVK_LEADER=store requires a LeaseStore bean") }
+                PollerLeases { groupId ->
+                    StoreBackedPollerLease(store, "kvk-poller-$groupId", owner, configuration.leaseTtlMillis)
+                }
+            }
+        }
+    }
+
+    /**
+     * A user-provided checkpoint bean takes precedence, so replicas on different hosts can share it
+     */
+    @Singleton
+    fun getTsCheckpoint(): TsCheckpoint {
+        if (configuration.mode == LeaderElectionMode.NONE) return TsCheckpoint.NONE
+        return applicationContext.findBean(SharedTsCheckpoint::class.java)
+            .map<TsCheckpoint> { it }
+            .orElseGet { FileTsCheckpoint(configuration.directory) }
+    }
+
+}
+
+/**
+ * Marker for a [TsCheckpoint] backed by storage shared between hosts
+ */
+interface SharedTsCheckpoint : TsCheckpoint
@@ -0,0 +1,34 @@
+package ru.swiftail.kvk.vk.lowlevel.leader
+
+/**
+ * Shared storage for leases, e.g. a database row or a redis key.
+ * Provide an implementation as a bean to use it with `KVK_LEADER=store`.
+ */
+interface LeaseStore {
+
+    /**
+     * Atomically takes the lease if it is free, expired or already owned by [owner],
+     * and extends it for [ttlMillis]
+     */
+    fun tryAcquire(name: String, owner: String, ttlMillis: Long): Boolean
+
+    fun release(name: String, owner: String)
+
+}
+
+class StoreBackedPollerLease(
+    private val store: LeaseStore,
+    private val name: String,
+    private val owner: String,
+    private val ttlMillis: Long
+) : PollerLease {
+
+    override fun tryAcquire(): Boolean {
+        return store.tryAcquire(name, owner, ttlMillis)
+    }
+
+    override fun release() {
+        store.release(name, owner)
+    }
+
+}
@@ -0,0 +1,78 @@
+package ru.swiftail.kvk.vk.lowlevel.leader
+
+import mu.KotlinLogging
+import ru.swiftail.kvk.vk.lowlevel.LongPollingListener
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Periodically competes for the poller lease of every group and
+ * starts or stops its long poll accordingly.
+ *
+ * Everything else (commands, pools, event bus) is started regardless,
+ * so taking over only costs one getLongPollServer call.
+ */
+class PollerLeadership(
+    private val pollers: Map<Int, LongPollingListener>,
+    private val leases: PollerLeases,
+    private val renewIntervalMillis: Long
+) {
+
+    private val groupLeases = pollers.keys.associateWith { leases.forGroup(it) }
+
+    @Volatile
+    private var running = false
+
+    private fun renew(groupId: Int) {
+        val poller = pollers.getValue(groupId)
+        val isLeader = try {
+            groupLeases.getValue(groupId).tryAcquire()
+        } catch (e: Exception) {
+            logger.error(e) { "Failed to renew poller lease of group $groupId" }
+            false
+        }
+
+        if (isLeader && !poller.isListening) {
+            logger.info { "Became poller leader of group $groupId" }
+            try {
+                poller.connect()
+                poller.startListening()
+            } catch (e: Exception) {
+                // Let another replica try instead of holding a lease nobody polls
+                groupLeases.getValue(groupId).release()
+                throw e
+            }
+        } else if (!isLeader && poller.isListening) {
+            logger.warn { "Lost poller leadership of group $groupId" }
+            poller.stopListening()
+        }
+    }
+
+    fun start() {
+        running = true
+        Thread({
+            while (running) {
+                pollers.keys.forEach { groupId ->
+                    try {
+                        renew(groupId)
+                    } catch (e: Exception) {
+                        logger.error(e) { "Failed to take over long poll of group $groupId" }
+                    }
+                }
+                Thread.sleep(renewIntervalMillis)
+            }
+        }, "PollerLeadership").apply {
+            isDaemon = true
+            start()
+        }
+    }
+
+    fun stop() {
+        running = false
+        pollers.forEach { (groupId, poller) ->
+            poller.stopListening()
+            groupLeases.getValue(groupId).release()
+        }
+    }
+
+}
@@ -0,0 +1,31 @@
+package ru.swiftail.kvk.vk.lowlevel.leader
+
+/**
+ * Ownership of the long poll of one group.
+ * Only the holder of the lease may poll, so replicas don't consume the same updates.
+ */
+interface PollerLease {
+
+    /**
+     * Acquires the lease, or renews it if already held
+     *
+     * @return whether this process is the leader now
+     */
+    fun tryAcquire(): Boolean
+
+    fun release()
+
+    companion object {
+        /**
+         * Lease of a process that is the only replica
+         */
+        val ALWAYS_HELD = object : PollerLease {
+            override fun tryAcquire() = true
+            override fun release() {}
+        }
+    }
+}
+
+fun interface PollerLeases {
+    fun forGroup(groupId: Int): PollerLease
+}
@@ -0,0 +1,48 @@
+package ru.swiftail.kvk.vk.lowlevel.leader
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+
+/**
+ * Last long poll `ts` processed for a group, so a new leader
+ * can continue where the previous one stopped
+ */
+interface TsCheckpoint {
+
+    fun save(groupId: Int, ts: Int)
+
+    /**
+     * @return the saved ts, or null if there is none younger than [maxAgeMillis]
+     */
+    fun load(groupId: Int, maxAgeMillis: Long): Int?
+
+    companion object {
+        val NONE = object : TsCheckpoint {
+            override fun save(groupId: Int, ts: Int) {}
+            override fun load(groupId: Int, maxAgeMillis: Long): Int? = null
+        }
+    }
+}
+
+class FileTsCheckpoint(private val directory: Path) : TsCheckpoint {
+
+    private fun fileOf(groupId: Int) = directory.resolve("ts-$groupId")
+
+    override fun save(groupId: Int, ts: Int) {
+        Files.createDirectories(directory)
+        val target = fileOf(groupId)
+        val temp = Files.createTempFile(directory, "ts-$groupId", ".tmp")
+        Files.write(temp, ts.toString().toByteArray())
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+    }
+
+    override fun load(groupId: Int, maxAgeMillis: Long): Int? {
+        val file = fileOf(groupId)
+        if (!Files.exists(file)) return null
+        val age = System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis()
+        if (age > maxAgeMillis) return null
+        return String(Files.readAllBytes(file)).trim().toIntOrNull()
+    }
+
+}
@@ -0,0 +1,29 @@
+package ru.swiftail.kvk.vk.lowlevel.scheduler
+
+/**
+ * Scheduling class of an API call
+ *
+ * @param weight share of the workers the class gets while others are waiting too
+ * @param maxConcurrency most workers the class may occupy at once
+ */
+enum class ApiPriority(val weight: Int, val maxConcurrency: Int) {
+    /**
+     * Replies to users, may use every worker
+     */
+    INTERACTIVE(8, Int.MAX_VALUE),
+
+    /**
+     * Media uploads
+     */
+    UPLOAD(3, 6),
+
+    /**
+     * Broadcasts and other bulk traffic, always leaves workers for the other classes
+     */
+    BACKGROUND(1, 4);
+
+    /**
+     * Name used in metrics
+     */
+    val label: String = name.toLowerCase()
+}
@@ -0,0 +1,13 @@
+package ru.swiftail.kvk.vk.lowlevel.scheduler
+
+import kotlin.coroutines.AbstractCoroutineContextElement
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * Priority of the API calls awaited in a coroutine that don't set their own
+ */
+class ApiPriorityElement(val priority: ApiPriority) : AbstractCoroutineContextElement(Key) {
+    companion object Key : CoroutineContext.Key<ApiPriorityElement>
+}
+
+fun ApiPriority.asContextElement() = ApiPriorityElement(this)
@@ -0,0 +1,157 @@
+package ru.swiftail.kvk.vk.lowlevel.scheduler
+
+import mu.KotlinLogging
+import ru.swiftail.kvk.metrics.PipelineMetrics
+import java.util.ArrayDeque
+import java.util.EnumMap
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.thread
+import kotlin.concurrent.withLock
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Runs API calls on a fixed set of workers, picking the next call by priority class.
+ *
+ * Classes share the workers in proportion to their [ApiPriority.weight] (stride scheduling),
+ * a class never runs more than [ApiPriority.maxConcurrency] calls at once.
+ * Calls of one class run in FIFO order.
+ */
+class ApiScheduler(workers: Int) {
+
+    private inner class Task(val priorityClass: PriorityClass, val run: () -> Unit) : ScheduledCall {
+        val queuedAt = System.nanoTime()
+
+        // Guarded by the scheduler lock
+        var worker: Thread? = null
+        var cancelled = false
+
+        override fun cancel() {
+            lock.withLock {
+                if (cancelled) return
+                cancelled = true
+                if (priorityClass.queue.remove(this)) return
+                // Unblocks the request where the transport allows it, e.g. waiting for a pooled connection
+                worker?.interrupt()
+            }
+        }
+    }
+
+    private inner class PriorityClass(val priority: ApiPriority) {
+        val queue = ArrayDeque<Task>()
+        val stride = STRIDE / priority.weight
+        val waitHistogram = PipelineMetrics.apiQueueWait.labels(priority.label)
+
+        // Virtual time of the class, the class furthest behind goes next
+        var pass = 0L
+        var running = 0
+
+        var completed = 0L
+        var dequeued = 0L
+        var totalWaitNanos = 0L
+        var maxWaitNanos = 0L
+
+        val isEligible: Boolean
+            get() = queue.isNotEmpty() && running < priority.maxConcurrency
+    }
+
+    private val lock = ReentrantLock()
+    private val available = lock.newCondition()
+
+    private val classes = EnumMap<ApiPriority, PriorityClass>(ApiPriority::class.java).apply {
+        ApiPriority.values().forEach { put(it, PriorityClass(it)) }
+    }
+
+    init {
+        repeat(workers) { index ->
+            thread(name = "api-$index", isDaemon = true) { work() }
+        }
+    }
+
+    fun submit(priority: ApiPriority, task: () -> Unit): ScheduledCall {
+        return lock.withLock {
+            val priorityClass = classes.getValue(priority)
+            if (priorityClass.queue.isEmpty() && priorityClass.running == 0) {
+                // An idle class doesn't bank the time it wasn't competing
+                priorityClass.pass = maxOf(priorityClass.pass, minActivePass())
+            }
+            val scheduled = Task(priorityClass, task)
+            priorityClass.queue.addLast(scheduled)
+            available.signal()
+            scheduled
+        }
+    }
+
+    fun stats(): List<ApiClassStats> = lock.withLock {
+        classes.values.map {
+            ApiClassStats(it.priority, it.queue.size, it.running, it.completed, it.dequeued, it.totalWaitNanos,
+                it.maxWaitNanos)
+        }
+    }
+
+    private fun minActivePass(): Long {
+        return classes.values
+            .filter { it.queue.isNotEmpty() || it.running > 0 }
+            .map { it.pass }
+            .minOrNull() ?: 0L
+    }
+
+    private fun next(): Task = lock.withLock<Nothing> {
+        while (true) {
+            val priorityClass = classes.values
+                .filter { it.isEligible }
+                .minByOrNull { it.pass }
+
+            if (priorityClass == null) {
+                available.await()
+                continue
+            }
+
+            val task = priorityClass.queue.removeFirst()
+            priorityClass.pass += priorityClass.stride
+            priorityClass.running++
+
+            val wait = System.nanoTime() - task.queuedAt
+            priorityClass.dequeued++
+            priorityClass.totalWaitNanos += wait
+            priorityClass.maxWaitNanos = maxOf(priorityClass.maxWaitNanos, wait)
+            priorityClass.waitHistogram.record(wait)
+
+            task.worker = Thread.currentThread()
+            return task
+        }
+    }
+
+    private fun work() {
+        while (true) {
+            val task = next()
+            try {
+                task.run()
+            } catch (e: Throwable) {
+                logger.error(e) { "API task failed" }
+            } finally {
+                lock.withLock {
+                    task.worker = null
+                    // A cancellation of this call must not interrupt the next one
+                    Thread.interrupted()
+
+                    val priorityClass = task.priorityClass
+                    priorityClass.running--
+                    priorityClass.completed++
+                    // A class at its cap may have waiting calls now
+                    available.signalAll()
+                }
+            }
+        }
+    }
+
+    companion object {
+        private const val STRIDE = 1L shl 20
+
+        /**
+         * Scheduler of all API calls, sized like the former "api" pool
+         */
+        val DEFAULT = ApiScheduler(12)
+    }
+
+}
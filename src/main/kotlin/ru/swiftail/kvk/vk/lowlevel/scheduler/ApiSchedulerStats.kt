@@ -0,0 +1,26 @@
+package ru.swiftail.kvk.vk.lowlevel.scheduler
+
+class ApiClassStats(
+    val priority: ApiPriority,
+    val queued: Int,
+    val running: Int,
+    val completed: Long,
+    /**
+     * Calls taken off the queue, including the ones still running
+     */
+    val dequeued: Long,
+    /**
+     * Total time dequeued calls spent in the queue
+     */
+    val totalWaitNanos: Long,
+    val maxWaitNanos: Long
+) {
+
+    val averageWaitMillis: Double
+        get() = if (dequeued == 0L) 0.0 else totalWaitNanos / dequeued / 1_000_000.0
+
+    override fun toString(): String {
+        return "ApiClassStats(priority=$priority, queued=$queued, running=$running, completed=$completed, " +
+                "averageWait=${"%.1f".format(averageWaitMillis)}ms, maxWait=${maxWaitNanos / 1_000_000}ms)"
+    }
+}
@@ -0,0 +1,13 @@
+package ru.swiftail.kvk.vk.lowlevel.scheduler
+
+/**
+ * Call submitted to [ApiScheduler]
+ */
+interface ScheduledCall {
+
+    /**
+     * Removes the call from the queue, or interrupts it if it is already running
+     */
+    fun cancel()
+
+}
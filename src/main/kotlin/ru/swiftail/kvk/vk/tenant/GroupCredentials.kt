@@ -0,0 +1,29 @@
+package ru.swiftail.kvk.vk.tenant
+
+data class GroupCredentials(
+    val groupId: Int,
+    val token: String,
+    val requestsPerSecond: Double = DEFAULT_REQUESTS_PER_SECOND,
+    val maxConcurrentHandlers: Int = DEFAULT_MAX_CONCURRENT_HANDLERS,
+    val callbackConfirmation: String? = null,
+    val callbackSecret: String? = null
+) {
+
+    override fun toString(): String {
+        // Never leak the token into logs
+        return "GroupCredentials(groupId=$groupId)"
+    }
+
+    companion object {
+        // VK allows 20 requests per second for community tokens
+        const val DEFAULT_REQUESTS_PER_SECOND = 20.0
+        const val DEFAULT_MAX_CONCURRENT_HANDLERS = 2
+    }
+}
+
+class GroupsConfiguration(val groups: List<GroupCredentials>) {
+    init {
+        require(groups.isNotEmpty()) { "At least one group must be configured" }
+        require(groups.map { it.groupId }.toSet().size == groups.size) { "Duplicate group ids in configuration" }
+    }
+}
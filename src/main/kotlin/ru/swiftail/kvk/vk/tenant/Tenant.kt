@@ -0,0 +1,68 @@
+package ru.swiftail.kvk.vk.tenant
+
+import com.google.common.util.concurrent.RateLimiter
+import com.vk.api.sdk.client.VkApiClient
+import com.vk.api.sdk.client.actors.GroupActor
+import kotlinx.coroutines.sync.Semaphore
+import ru.swiftail.kvk.vk.api.VkContext
+import ru.swiftail.kvk.vk.api.bot.BotVk
+import ru.swiftail.kvk.vk.api.media.MediaServices
+import ru.swiftail.kvk.vk.api.message.MessageEvents
+import ru.swiftail.kvk.vk.lowlevel.EventHandlers
+import ru.swiftail.kvk.vk.lowlevel.LongPollingListener
+import ru.swiftail.kvk.vk.lowlevel.bus.EventBus
+import ru.swiftail.kvk.vk.lowlevel.callback.CallbackGroup
+import ru.swiftail.kvk.vk.lowlevel.leader.TsCheckpoint
+import java.io.Closeable
+
+/**
+ * Everything that is bound to a single VK community.
+ * The api client, thread pools and command registry are shared between tenants.
+ */
+class Tenant(
+    val credentials: GroupCredentials,
+    vk: VkApiClient,
+    eventBus: EventBus,
+    checkpoint: TsCheckpoint,
+    mediaServices: MediaServices
+) : Closeable {
+
+    val groupId = credentials.groupId
+
+    val actor = GroupActor(credentials.groupId, credentials.token)
+
+    val vkContext = VkContext(actor, vk, RateLimiter.create(credentials.requestsPerSecond))
+
+    val eventHandlers = EventHandlers()
+
+    val longPollingListener = LongPollingListener(vk, actor, groupId, eventBus, checkpoint)
+
+    val botVk = BotVk(vkContext, mediaServices)
+
+    val messageEvents = MessageEvents(eventHandlers, botVk)
+
+    /**
+     * Limits the amount of handlers running at once for this group,
+     * so a slow group can't take over the shared command pool
+     */
+    val handlerPermits = Semaphore(credentials.maxConcurrentHandlers)
+
+    /**
+     * Callback API view of this group, null if no confirmation code is configured
+     */
+    val callbackGroup: CallbackGroup? = credentials.callbackConfirmation?.let {
+        CallbackGroup(it, credentials.callbackSecret)
+    }
+
+    /**
+     * Stops polling and sends what is left in the reply buffers
+     */
+    override fun close() {
+        longPollingListener.stopListening()
+        botVk.close()
+    }
+
+    override fun toString(): String {
+        return "Tenant(groupId=$groupId)"
+    }
+}
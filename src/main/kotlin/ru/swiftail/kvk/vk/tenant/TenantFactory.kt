@@ -0,0 +1,37 @@
+package ru.swiftail.kvk.vk.tenant
+
+import io.micronaut.context.annotation.Factory
+import ru.swiftail.kvk.vk.api.VkContext
+import ru.swiftail.kvk.vk.api.bot.BotVk
+import ru.swiftail.kvk.vk.api.message.MessageEvents
+import ru.swiftail.kvk.vk.lowlevel.LongPollingListener
+import javax.inject.Singleton
+
+/**
+ * Exposes the primary tenant's components as beans,
+ * so single-group applications can keep injecting them directly
+ */
+@Factory
+class TenantFactory(private val registry: TenantRegistry) {
+
+    @Singleton
+    fun getVkContext(): VkContext {
+        return registry.primary.vkContext
+    }
+
+    @Singleton
+    fun getLongPollingListener(): LongPollingListener {
+        return registry.primary.longPollingListener
+    }
+
+    @Singleton
+    fun getBotVk(): BotVk {
+        return registry.primary.botVk
+    }
+
+    @Singleton
+    fun getMessageEvents(): MessageEvents {
+        return registry.primary.messageEvents
+    }
+
+}
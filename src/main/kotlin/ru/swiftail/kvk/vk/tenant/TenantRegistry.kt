@@ -0,0 +1,64 @@
+package ru.swiftail.kvk.vk.tenant
+
+import com.google.gson.JsonObject
+import com.vk.api.sdk.client.VkApiClient
+import mu.KotlinLogging
+import ru.swiftail.kvk.vk.api.media.MediaServices
+import ru.swiftail.kvk.vk.lowlevel.bus.EventBus
+import ru.swiftail.kvk.vk.lowlevel.leader.TsCheckpoint
+import javax.inject.Singleton
+
+private val logger = KotlinLogging.logger {}
+
+@Singleton
+class TenantRegistry(
+    configuration: GroupsConfiguration,
+    vk: VkApiClient,
+    eventBus: EventBus,
+    checkpoint: TsCheckpoint,
+    mediaServices: MediaServices
+) {
+
+    val tenants: List<Tenant> = configuration.groups.map { Tenant(it, vk, eventBus, checkpoint, mediaServices) }
+
+    private val byGroupId = tenants.associateBy { it.groupId }
+
+    /**
+     * The first configured group, used by single-group applications
+     */
+    val primary: Tenant
+        get() = tenants.first()
+
+    fun get(groupId: Int): Tenant? = byGroupId[groupId]
+
+    /**
+     * Hands an update over to the handlers of its group
+     */
+    fun dispatch(update: JsonObject) {
+        val groupId = update["group_id"]?.asInt
+        val tenant = groupId?.let(::get)
+        if (tenant == null) {
+            logger.warn { "Update for unknown group $groupId dropped" }
+            return
+        }
+        tenant.eventHandlers.dispatch(update)
+    }
+
+    /**
+     * Closes every tenant, called once on shutdown
+     */
+    fun close() {
+        tenants.forEach { tenant ->
+            try {
+                tenant.close()
+            } catch (e: Exception) {
+                logger.error(e) { "Failed to close $tenant" }
+            }
+        }
+    }
+
+    init {
+        logger.info { "Configured ${tenants.size} group(s): ${tenants.joinToString { it.groupId.toString() }}" }
+    }
+
+}
@@ -0,0 +1,81 @@
+package ru.swiftail.kvk.permission
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class FilePermissionStorageTest {
+
+    @Test
+    fun `parses every kind of entry`() {
+        val data = FilePermissionStorage.parse(
+            listOf(
+                "# role <name> <permission>...",
+                "role default kvk.help kvk.ping",
+                "role moderator kvk.moderation -kvk.moderation.ban",
+                "",
+                "default default",
+                "user 12345 moderator   # trailing comment",
+                "chat 2000000001 678 moderator"
+            )
+        )
+
+        assertEquals(setOf("kvk.help", "kvk.ping"), data.roles["default"])
+        assertEquals(setOf("kvk.moderation", "-kvk.moderation.ban"), data.roles["moderator"])
+        assertEquals(setOf("default"), data.defaultRoles)
+        assertEquals(setOf("moderator"), data.userRoles[12345])
+        assertEquals(setOf("moderator"), data.chatRoles[2000000001]?.get(678))
+    }
+
+    @Test
+    fun `repeated entries are merged`() {
+        val data = FilePermissionStorage.parse(
+            listOf(
+                "role default kvk.help",
+                "role default kvk.ping",
+                "user 1 moderator",
+                "user 1 admin",
+                "chat 2000000001 1 moderator",
+                "chat 2000000001 1 admin"
+            )
+        )
+
+        assertEquals(setOf("kvk.help", "kvk.ping"), data.roles["default"])
+        assertEquals(setOf("moderator", "admin"), data.userRoles[1])
+        assertEquals(setOf("moderator", "admin"), data.chatRoles[2000000001]?.get(1))
+    }
+
+    @Test
+    fun `role without permissions is kept`() {
+        val data = FilePermissionStorage.parse(listOf("role nobody"))
+
+        assertEquals(emptySet<String>(), data.roles["nobody"])
+    }
+
+    @Test
+    fun `rejects unknown entries with the line number`() {
+        val e = assertThrows(IllegalArgumentException::class.java) {
+            FilePermissionStorage.parse(listOf("role default kvk.help", "group 1 admin"))
+        }
+        assertTrue(e.message!!.startsWith("Line 2:"), e.message)
+    }
+
+    @Test
+    fun `rejects malformed ids`() {
+        assertThrows(IllegalArgumentException::class.java) {
+            FilePermissionStorage.parse(listOf("user durov admin"))
+        }
+        assertThrows(IllegalArgumentException::class.java) {
+            FilePermissionStorage.parse(listOf("chat 2000000001"))
+        }
+    }
+
+    @Test
+    fun `rejects role without a name`() {
+        assertThrows(IllegalArgumentException::class.java) {
+            FilePermissionStorage.parse(listOf("role"))
+        }
+    }
+
+}
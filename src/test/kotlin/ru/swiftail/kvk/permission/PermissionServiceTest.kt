@@ -0,0 +1,72 @@
+package ru.swiftail.kvk.permission
+
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNotSame
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class PermissionServiceTest {
+
+    private val storage = InMemoryPermissionStorage(
+        PermissionData(
+            roles = mapOf(
+                "default" to setOf("kvk.help"),
+                "moderator" to setOf("kvk.moderation", "-kvk.moderation.ban"),
+                "admin" to setOf("kvk.moderation.ban", "kvk.admin")
+            ),
+            defaultRoles = setOf("default"),
+            userRoles = mapOf(USER to setOf("moderator")),
+            chatRoles = mapOf(CHAT to mapOf(CHAT_ADMIN to setOf("admin")))
+        )
+    )
+
+    private val service = PermissionService(storage, PermissionsConfiguration(null, 0, 100))
+
+    @Test
+    fun `roles are merged with the default ones`() {
+        val permissions = service.resolve(USER, OTHER_CHAT)
+
+        assertTrue(permissions.has("kvk.help"))
+        assertTrue(permissions.has("kvk.moderation.kick"))
+        assertFalse(permissions.has("kvk.moderation.ban"))
+        assertFalse(permissions.has("kvk.admin"))
+    }
+
+    @Test
+    fun `chat roles apply only in their chat`() {
+        assertTrue(service.resolve(CHAT_ADMIN, CHAT).has("kvk.admin"))
+        assertTrue(service.resolve(CHAT_ADMIN, CHAT).has("kvk.help"))
+        assertFalse(service.resolve(CHAT_ADMIN, OTHER_CHAT).has("kvk.admin"))
+    }
+
+    @Test
+    fun `deny of one role wins over grant of the same node in another`() {
+        storage.setUserRoles(USER, setOf("moderator", "admin"))
+
+        val permissions = service.resolve(USER, OTHER_CHAT)
+        assertTrue(permissions.has("kvk.admin"))
+        assertFalse(permissions.has("kvk.moderation.ban"))
+    }
+
+    @Test
+    fun `same roles share resolved permissions until the storage changes`() {
+        val before = service.resolve(NOBODY, CHAT)
+        assertSame(before, service.resolve(NOBODY + 1, OTHER_CHAT))
+
+        storage.setRole("default", setOf("kvk.help", "kvk.ping"))
+
+        val after = service.resolve(NOBODY, CHAT)
+        assertNotSame(before, after)
+        assertTrue(after.has("kvk.ping"))
+    }
+
+    companion object {
+        private const val USER = 1
+        private const val CHAT_ADMIN = 2
+        private const val NOBODY = 3
+        private const val CHAT = 2000000001
+        private const val OTHER_CHAT = 2000000002
+    }
+
+}
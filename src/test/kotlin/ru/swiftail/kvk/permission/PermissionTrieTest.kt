@@ -0,0 +1,87 @@
+package ru.swiftail.kvk.permission
+
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class PermissionTrieTest {
+
+    @Test
+    fun `node grants itself and everything below it`() {
+        val trie = PermissionTrie.compile(listOf("kvk.admin"))
+
+        assertTrue(trie.check("kvk.admin"))
+        assertTrue(trie.check("kvk.admin.kick"))
+        assertFalse(trie.check("kvk"))
+        assertFalse(trie.check("kvk.administrator"))
+        assertFalse(trie.check("kvk.help"))
+    }
+
+    @Test
+    fun `trailing wildcard is the same as the node itself`() {
+        val trie = PermissionTrie.compile(listOf("kvk.admin.*"))
+
+        assertTrue(trie.check("kvk.admin"))
+        assertTrue(trie.check("kvk.admin.kick"))
+        assertFalse(trie.check("kvk.help"))
+    }
+
+    @Test
+    fun `star grants everything`() {
+        val trie = PermissionTrie.compile(listOf("*"))
+
+        assertTrue(trie.check("kvk"))
+        assertTrue(trie.check("kvk.admin.kick"))
+        assertTrue(trie.check("other.plugin"))
+    }
+
+    @Test
+    fun `nothing is granted by an empty trie`() {
+        val trie = PermissionTrie.compile(emptyList())
+
+        assertFalse(trie.check("kvk"))
+        assertFalse(trie.check("kvk.help"))
+    }
+
+    @Test
+    fun `deny excludes a subtree of a grant`() {
+        val trie = PermissionTrie.compile(listOf("kvk.moderation", "-kvk.moderation.ban"))
+
+        assertTrue(trie.check("kvk.moderation"))
+        assertTrue(trie.check("kvk.moderation.kick"))
+        assertFalse(trie.check("kvk.moderation.ban"))
+        assertFalse(trie.check("kvk.moderation.ban.forever"))
+    }
+
+    @Test
+    fun `deny excludes a subtree of star`() {
+        val trie = PermissionTrie.compile(listOf("*", "-kvk.admin"))
+
+        assertTrue(trie.check("kvk.help"))
+        assertFalse(trie.check("kvk.admin"))
+        assertFalse(trie.check("kvk.admin.kick"))
+    }
+
+    @Test
+    fun `most specific node wins`() {
+        val trie = PermissionTrie.compile(listOf("-kvk", "kvk.ping"))
+
+        assertTrue(trie.check("kvk.ping"))
+        assertFalse(trie.check("kvk.help"))
+    }
+
+    @Test
+    fun `deny wins over grant on the same node in any order`() {
+        assertFalse(PermissionTrie.compile(listOf("kvk.ping", "-kvk.ping")).check("kvk.ping"))
+        assertFalse(PermissionTrie.compile(listOf("-kvk.ping", "kvk.ping")).check("kvk.ping"))
+    }
+
+    @Test
+    fun `nodes are matched ignoring case`() {
+        val trie = PermissionTrie.compile(listOf("KVK.Ping"))
+
+        assertTrue(trie.check("kvk.ping"))
+        assertTrue(trie.check("Kvk.PING"))
+    }
+
+}
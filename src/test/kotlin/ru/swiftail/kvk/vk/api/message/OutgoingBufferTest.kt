@@ -0,0 +1,151 @@
+package ru.swiftail.kvk.vk.api.message
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import ru.swiftail.kvk.vk.api.message.OutgoingBuffer.Companion.MAX_MESSAGE_LENGTH
+import ru.swiftail.kvk.vk.lowlevel.scheduler.ApiPriority
+import ru.swiftail.kvk.vk.lowlevel.scheduler.ApiPriorityElement
+import ru.swiftail.kvk.vk.lowlevel.scheduler.asContextElement
+import java.util.Collections
+import kotlin.coroutines.coroutineContext
+
+class OutgoingBufferTest {
+
+    private val scope = CoroutineScope(Dispatchers.Default + SupervisorJob())
+
+    private val sent = Collections.synchronizedList(mutableListOf<String>())
+    private val priorities = Collections.synchronizedList(mutableListOf<ApiPriority?>())
+
+    private fun buffer(window: Long) = OutgoingBuffer(scope, window) { _, text ->
+        priorities += coroutineContext[ApiPriorityElement]?.priority
+        sent += text
+        sent.size
+    }
+
+    @AfterEach
+    fun tearDown() {
+        scope.cancel()
+    }
+
+    @Test
+    fun `short text is not split`() {
+        assertEquals(listOf("hello"), OutgoingBuffer.split("hello", 10))
+    }
+
+    @Test
+    fun `split prefers line breaks`() {
+        assertEquals(listOf("aaaa\nbbbb", "cc"), OutgoingBuffer.split("aaaa\nbbbb\ncc", 10))
+    }
+
+    @Test
+    fun `split cuts lines longer than the limit`() {
+        assertEquals(listOf("abcd", "efgh", "ij"), OutgoingBuffer.split("abcdefghij", 4))
+    }
+
+    @Test
+    fun `split parts never exceed the limit`() {
+        val text = (1..500).joinToString("\n") { "line $it ".repeat(it % 7 + 1) }
+        val parts = OutgoingBuffer.split(text, 64)
+
+        assertTrue(parts.all { it.length <= 64 })
+        assertEquals(text.replace("\n", ""), parts.joinToString("").replace("\n", ""))
+    }
+
+    @Test
+    fun `replies within the window are joined`() = runBlocking {
+        val buffer = buffer(window = 50)
+
+        val first = buffer.append(PEER, "first")
+        val second = buffer.append(PEER, "second")
+
+        assertEquals(first.await(), second.await())
+        assertEquals(listOf("first\nsecond"), sent)
+    }
+
+    @Test
+    fun `replies that don't fit are sent as separate messages`() = runBlocking {
+        val buffer = buffer(window = 60_000)
+
+        val first = buffer.append(PEER, "a".repeat(3000))
+        val second = buffer.append(PEER, "b".repeat(2000))
+        buffer.flush(PEER)
+
+        assertEquals(listOf(3000, 2000), sent.map { it.length })
+        assertEquals(1, first.await())
+        assertEquals(2, second.await())
+    }
+
+    @Test
+    fun `oversized reply is split and resolves to its first message`() = runBlocking {
+        val buffer = buffer(window = 60_000)
+
+        val result = buffer.append(PEER, "x".repeat(MAX_MESSAGE_LENGTH + 100))
+        buffer.flush(PEER)
+
+        assertEquals(listOf(MAX_MESSAGE_LENGTH, 100), sent.map { it.length })
+        assertEquals(1, result.await())
+    }
+
+    @Test
+    fun `replies are buffered while a message is being sent`() = runBlocking {
+        val sending = CompletableDeferred<Unit>()
+        val gate = CompletableDeferred<Unit>()
+        val buffer = OutgoingBuffer(scope, 60_000) { _, text ->
+            sending.complete(Unit)
+            gate.await()
+            sent += text
+            sent.size
+        }
+
+        val flushing = scope.launch {
+            buffer.append(PEER, "first")
+            buffer.flush(PEER)
+        }
+        sending.await()
+
+        // Doesn't wait for the message in flight
+        val second = withTimeout(1000) { buffer.append(PEER, "second") }
+
+        gate.complete(Unit)
+        flushing.join()
+        buffer.flush(PEER)
+
+        assertEquals(listOf("first", "second"), sent)
+        assertEquals(2, second.await())
+    }
+
+    @Test
+    fun `flushAll sends every peer`() = runBlocking {
+        val buffer = buffer(window = 60_000)
+
+        buffer.append(PEER, "one")
+        buffer.append(PEER + 1, "two")
+        buffer.flushAll()
+
+        assertEquals(setOf("one", "two"), sent.toSet())
+    }
+
+    @Test
+    fun `window keeps the priority of the caller`() = runBlocking(ApiPriority.BACKGROUND.asContextElement()) {
+        val buffer = buffer(window = 10)
+
+        buffer.append(PEER, "later").await()
+
+        assertEquals(listOf(ApiPriority.BACKGROUND), priorities)
+    }
+
+    companion object {
+        private const val PEER = 2000000001
+    }
+
+}
@@ -0,0 +1,115 @@
+package ru.swiftail.kvk.vk.lowlevel.bus
+
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotNull
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.io.BufferedReader
+import java.io.InputStreamReader
+import java.net.InetAddress
+import java.net.Socket
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+class SocketEventBusTest {
+
+    private class Received(val worker: Int, val update: JsonObject)
+
+    private val received = LinkedBlockingQueue<Received>()
+
+    private lateinit var server: SocketEventBusServer
+
+    private val clients = mutableListOf<SocketEventBusClient>()
+
+    @BeforeEach
+    fun setUp() {
+        server = SocketEventBusServer(InetAddress.getLoopbackAddress(), 0, WORKERS, SECRET)
+        server.start()
+    }
+
+    @AfterEach
+    fun tearDown() {
+        clients.forEach { it.stop() }
+        server.stop()
+    }
+
+    @Test
+    fun `every peer stays on one worker`() {
+        (0 until WORKERS).forEach(::startWorker)
+
+        val peers = (2000000001..2000000006).toList()
+        repeat(ROUNDS) { round -> peers.forEach { server.publish(update(it, round)) } }
+
+        val byPeer = receive(peers.size * ROUNDS).groupBy { peerOf(it.update) }
+
+        assertEquals(peers.toSet(), byPeer.keys)
+        byPeer.forEach { (peer, updates) ->
+            assertEquals(setOf(Math.floorMod(peer, WORKERS)), updates.map { it.worker }.toSet())
+            // One worker consumes its partition in order
+            assertEquals((0 until ROUNDS).toList(), updates.map { roundOf(it.update) })
+        }
+    }
+
+    @Test
+    fun `updates wait for the worker of their partition`() {
+        server.publish(update(PEER, 0))
+        server.publish(update(PEER, 1))
+
+        startWorker(Math.floorMod(PEER, WORKERS))
+
+        assertEquals(listOf(0, 1), receive(2).map { roundOf(it.update) })
+    }
+
+    @Test
+    fun `unacknowledged updates are sent again after a reconnect`() {
+        val worker = Math.floorMod(PEER, WORKERS)
+        server.publish(update(PEER, 0))
+
+        // Reads the update and dies without acknowledging it
+        Socket("127.0.0.1", server.localPort).use { socket ->
+            socket.getOutputStream().write("worker $worker $SECRET\n".toByteArray(Charsets.UTF_8))
+            val line = BufferedReader(InputStreamReader(socket.getInputStream(), Charsets.UTF_8)).readLine()
+            assertNotNull(line)
+        }
+
+        startWorker(worker)
+
+        val redelivered = receive(1).single()
+        assertEquals(worker, redelivered.worker)
+        assertEquals(0, roundOf(redelivered.update))
+    }
+
+    private fun startWorker(index: Int) {
+        val client = SocketEventBusClient("127.0.0.1", server.localPort, index, SECRET)
+        client.subscribe { received.put(Received(index, it)) }
+        client.start()
+        clients += client
+    }
+
+    private fun receive(count: Int): List<Received> {
+        return List(count) {
+            received.poll(5, TimeUnit.SECONDS) ?: throw AssertionError("Received only $it of $count updates")
+        }
+    }
+
+    private fun update(peerId: Int, round: Int): JsonObject {
+        return JsonParser().parse(
+            """{"type":"message_new","group_id":1001,"object":{"message":{"peer_id":$peerId,"text":"$round"}}}"""
+        ).asJsonObject
+    }
+
+    private fun peerOf(update: JsonObject) = Partitioning.peerIdOf(update)!!
+
+    private fun roundOf(update: JsonObject) = update["object"].asJsonObject["message"].asJsonObject["text"].asInt
+
+    companion object {
+        private const val WORKERS = 2
+        private const val ROUNDS = 3
+        private const val PEER = 2000000001
+        private const val SECRET = "bus-secret"
+    }
+
+}
@@ -0,0 +1,162 @@
+package ru.swiftail.kvk.vk.lowlevel.callback
+
+import com.google.gson.JsonArray
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotNull
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import ru.swiftail.kvk.vk.lowlevel.bus.EventBus
+import ru.swiftail.kvk.vk.lowlevel.bus.EventConsumer
+import java.net.HttpURLConnection
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.URL
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+class CallbackApiServerTest {
+
+    private class RecordingEventBus : EventBus {
+        val published = LinkedBlockingQueue<JsonObject>()
+
+        override fun publish(update: JsonObject) {
+            published.put(update)
+        }
+
+        override fun subscribe(consumer: EventConsumer) {}
+
+        override fun start() {}
+
+        override fun stop() {}
+    }
+
+    private val eventBus = RecordingEventBus()
+
+    private lateinit var server: CallbackApiServer
+
+    @BeforeEach
+    fun setUp() {
+        server = CallbackApiServer(InetSocketAddress(InetAddress.getLoopbackAddress(), 0), PATH, eventBus) { groupId ->
+            if (groupId == GROUP_ID) CallbackGroup(CONFIRMATION, SECRET) else null
+        }
+        server.start()
+    }
+
+    @AfterEach
+    fun tearDown() {
+        server.stop()
+    }
+
+    @Test
+    fun `answers confirmation with the group's code`() {
+        val response = post(payload("confirmation.json"))
+
+        assertEquals(200, response.code)
+        assertEquals(CONFIRMATION, response.body)
+        assertNull(eventBus.published.poll(100, TimeUnit.MILLISECONDS))
+    }
+
+    @Test
+    fun `publishes events with the right secret`() {
+        val response = post(payload("message_new.json"))
+
+        assertEquals(200, response.code)
+        assertEquals("ok", response.body)
+
+        val update = eventBus.published.poll(5, TimeUnit.SECONDS)
+        assertNotNull(update)
+        assertEquals("-ping", update!!["object"].asJsonObject["text"].asString)
+    }
+
+    @Test
+    fun `rejects a wrong secret`() {
+        val update = JsonParser().parse(payload("message_new.json")).asJsonObject
+        update.addProperty("secret", "s3creT")
+
+        assertEquals(403, post(update.toString()).code)
+        assertNull(eventBus.published.poll(100, TimeUnit.MILLISECONDS))
+    }
+
+    @Test
+    fun `rejects a missing secret`() {
+        val update = JsonParser().parse(payload("message_new.json")).asJsonObject
+        update.remove("secret")
+
+        assertEquals(403, post(update.toString()).code)
+    }
+
+    @Test
+    fun `rejects an unknown group`() {
+        val update = JsonParser().parse(payload("message_new.json")).asJsonObject
+        update.addProperty("group_id", 2002)
+
+        assertEquals(404, post(update.toString()).code)
+        assertNull(eventBus.published.poll(100, TimeUnit.MILLISECONDS))
+    }
+
+    @Test
+    fun `rejects a group id that is not a number`() {
+        val update = JsonParser().parse(payload("message_new.json")).asJsonObject
+        update.add("group_id", JsonObject())
+        assertEquals(400, post(update.toString()).code)
+
+        update.addProperty("group_id", "abc")
+        assertEquals(400, post(update.toString()).code)
+        assertNull(eventBus.published.poll(100, TimeUnit.MILLISECONDS))
+    }
+
+    @Test
+    fun `rejects a type that is not a string`() {
+        val update = JsonParser().parse(payload("message_new.json")).asJsonObject
+        update.add("type", JsonArray())
+
+        assertEquals(400, post(update.toString()).code)
+        assertNull(eventBus.published.poll(100, TimeUnit.MILLISECONDS))
+    }
+
+    @Test
+    fun `rejects an oversized body`() {
+        val body = "{\"padding\": \"" + "x".repeat(1024 * 1024) + "\"}"
+
+        assertEquals(413, post(body).code)
+    }
+
+    @Test
+    fun `rejects other methods`() {
+        val connection = URL(url()).openConnection() as HttpURLConnection
+        assertEquals(405, connection.responseCode)
+    }
+
+    private class Response(val code: Int, val body: String)
+
+    private fun post(body: String): Response {
+        val bytes = body.toByteArray(Charsets.UTF_8)
+        val connection = URL(url()).openConnection() as HttpURLConnection
+        connection.requestMethod = "POST"
+        connection.doOutput = true
+        connection.setFixedLengthStreamingMode(bytes.size)
+        connection.outputStream.use { it.write(bytes) }
+
+        val code = connection.responseCode
+        val stream = if (code < 400) connection.inputStream else connection.errorStream
+        return Response(code, stream?.use { it.readBytes().toString(Charsets.UTF_8) }.orEmpty())
+    }
+
+    private fun url() = "http://127.0.0.1:${server.address.port}$PATH"
+
+    private fun payload(name: String): String {
+        return javaClass.getResourceAsStream("/callback/$name")!!.use { it.readBytes().toString(Charsets.UTF_8) }
+    }
+
+    companion object {
+        private const val PATH = "/callback"
+        private const val GROUP_ID = 1001
+        private const val CONFIRMATION = "a1b2c3d4"
+        private const val SECRET = "s3cret"
+    }
+
+}